@@ -0,0 +1,257 @@
+package com.vmware.vcac.code.stream.jenkins.plugin;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHAuthenticator;
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserListBoxModel;
+import com.cloudbees.jenkins.plugins.sshcredentials.impl.JSchConnector;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.vmware.vcac.code.stream.jenkins.plugin.CodeStreamBuilder.DescriptorImpl.CodeStreamEnvAction;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.BatchPipeline;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionLocation;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSummary;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PluginParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PollStrategy;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskFailureMode;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.EnvVariableResolver;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionResultStore;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.JsonPath;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.ItemGroup;
+import hudson.security.ACL;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import static hudson.Util.fixEmptyAndTrim;
+
+/**
+ * {@link Builder} that triggers a list of pipelines of one CodeStream server in parallel.
+ * <p/>
+ * At most <tt>maxConcurrency</tt> pipelines are triggered and waited for at the same time, over a single
+ * client and token. With <tt>failFast</tt> the step stops waiting as soon as one pipeline fails. Output variables
+ * are extracted from the response of every pipeline and exported with the pipeline's suffix.
+ */
+public class CodeStreamBatchBuilder extends Builder implements Serializable {
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+    private String serverUrl;
+    private String tenant;
+    private String credentialsId;
+    private List<BatchPipeline> pipelines;
+    private int maxConcurrency;
+    private boolean waitExec;
+    private boolean failFast;
+    private String pollStrategy;
+    private String executionLocation;
+    private int coalesceWindow;
+    private String taskFailureMode;
+    private String outputVariables;
+
+    // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
+    @DataBoundConstructor
+    public CodeStreamBatchBuilder(String serverUrl, String tenant, String credentialsId, List<BatchPipeline> pipelines,
+                                  int maxConcurrency, boolean waitExec, boolean failFast) {
+        this.serverUrl = fixEmptyAndTrim(serverUrl);
+        this.tenant = fixEmptyAndTrim(tenant);
+        this.credentialsId = fixEmptyAndTrim(credentialsId);
+        this.pipelines = pipelines;
+        this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : DEFAULT_MAX_CONCURRENCY;
+        this.waitExec = waitExec;
+        this.failFast = failFast;
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public String getCredentialsId() {
+        return credentialsId;
+    }
+
+    public List<BatchPipeline> getPipelines() {
+        return pipelines;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public boolean isWaitExec() {
+        return waitExec;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public String getPollStrategy() {
+        return pollStrategy;
+    }
+
+    @DataBoundSetter
+    public void setPollStrategy(String pollStrategy) {
+        this.pollStrategy = fixEmptyAndTrim(pollStrategy);
+    }
+
+    public String getExecutionLocation() {
+        return executionLocation;
+    }
+
+    @DataBoundSetter
+    public void setExecutionLocation(String executionLocation) {
+        this.executionLocation = fixEmptyAndTrim(executionLocation);
+    }
+
+    public int getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    @DataBoundSetter
+    public void setCoalesceWindow(int coalesceWindow) {
+        this.coalesceWindow = Math.max(0, coalesceWindow);
+    }
+
+    public String getTaskFailureMode() {
+        return taskFailureMode;
+    }
+
+    @DataBoundSetter
+    public void setTaskFailureMode(String taskFailureMode) {
+        this.taskFailureMode = fixEmptyAndTrim(taskFailureMode);
+    }
+
+    public String getOutputVariables() {
+        return outputVariables;
+    }
+
+    @DataBoundSetter
+    public void setOutputVariables(String outputVariables) {
+        this.outputVariables = fixEmptyAndTrim(outputVariables);
+    }
+
+    @Override
+    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+        PrintStream logger = listener.getLogger();
+        EnvVariableResolver helper = new EnvVariableResolver(build, listener);
+        List<PluginParam> params = new ArrayList<PluginParam>();
+        if (pipelines != null) {
+            for (BatchPipeline pipeline : pipelines) {
+                PluginParam param = new PluginParam(helper.replaceBuildParamWithValue(serverUrl),
+                        helper.replaceBuildParamWithValue(tenant), helper.replaceBuildParamWithValue(pipeline.getPipelineName()),
+                        helper.replaceBuildParamWithValue(credentialsId), waitExec, helper.replaceBuildParamWithValue(pipeline.getPipelineParams()));
+                param.setPollStrategy(PollStrategy.fromValue(pollStrategy));
+                param.setCoalesceWindow(coalesceWindow);
+                param.setTaskFailureMode(TaskFailureMode.fromValue(taskFailureMode));
+                param.validate();
+                params.add(param);
+            }
+        }
+        Map<String, JsonPath> exports = ExecutionResultStore.parseExports(outputVariables);
+        logger.println("Starting " + params.size() + " CodeStream pipeline executions, at most " + maxConcurrency + " at a time");
+        CodeStreamBatchCallable callable = new CodeStreamBatchCallable(params, maxConcurrency, failFast, logger);
+        callable.setOwner(build.getExternalizableId());
+        CodeStreamBatchCallable.Result result = ExecutionLocation.fromValue(executionLocation).call(launcher, callable);
+        Map<String, String> envVariables = result.getData();
+        Map<String, ExecutionSummary> summaries = ExecutionResultStore.store(build.getRootDir(), envVariables, exports);
+        for (PluginParam param : params) {
+            ExecutionSummary summary = summaries.get("_" + CodeStreamBatchCallable.toVariableSuffix(param.getPipelineName()));
+            if (summary != null) {
+                summary.setPipelineName(param.getPipelineName());
+            }
+        }
+        CodeStreamEnvAction action = new CodeStreamEnvAction();
+        action.addAll(envVariables);
+        build.addAction(action);
+        action.setSummaries(new ArrayList<ExecutionSummary>(summaries.values()));
+        if (!result.isSuccess()) {
+            throw new AbortException(result.getFailures().size() + " CodeStream pipeline(s) failed: " + result.getFailures());
+        }
+        return true;
+    }
+
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return (DescriptorImpl) super.getDescriptor();
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+
+        public boolean isApplicable(Class<? extends AbstractProject> aClass) {
+            return true;
+        }
+
+        public String getDisplayName() {
+            return "Execute CodeStream Pipelines in Parallel";
+        }
+
+        public FormValidation doCheckMaxConcurrency(@QueryParameter final String value) {
+            String concurrency = Util.fixEmptyAndTrim(value);
+            if (concurrency == null) {
+                return FormValidation.ok();
+            }
+            try {
+                if (Integer.parseInt(concurrency) < 1) {
+                    return FormValidation.error("Please enter a number greater than zero.");
+                }
+            } catch (NumberFormatException e) {
+                return FormValidation.error("Please enter a number.");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckTenant(@QueryParameter final String value) {
+            if (Util.fixEmptyAndTrim(value) == null)
+                return FormValidation.error("Please enter tenant.");
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckOutputVariables(@QueryParameter final String value) {
+            return DescriptorSupport.checkOutputVariables(value);
+        }
+
+        public ListBoxModel doFillTaskFailureModeItems() {
+            return DescriptorSupport.taskFailureModeItems();
+        }
+
+        public ListBoxModel doFillPollStrategyItems() {
+            return DescriptorSupport.pollStrategyItems();
+        }
+
+        public ListBoxModel doFillExecutionLocationItems() {
+            return DescriptorSupport.executionLocationItems();
+        }
+
+        @SuppressWarnings("deprecation")
+        public ListBoxModel doFillCredentialsIdItems(final @AncestorInPath ItemGroup<?> context) {
+            final List<StandardUsernamePasswordCredentials> credentials = CredentialsProvider.lookupCredentials(
+                    StandardUsernamePasswordCredentials.class, context, ACL.SYSTEM, CodeStreamBuilder.NO_REQUIREMENTS);
+
+            return new SSHUserListBoxModel().withEmptySelection().withMatching(
+                    SSHAuthenticator.matcher(JSchConnector.class), credentials);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.vmware.vcac.code.stream.jenkins.plugin;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PluginParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.TokenCache;
+import org.jenkinsci.remoting.RoleChecker;
+
+/**
+ * Triggers several pipelines with bounded parallelism.
+ * <p/>
+ * Pipelines of the same server, tenant and credentials share one {@link CodeStreamClient}, so the token and
+ * pipeline lookups are paid once per distinct combination, and each pipeline runs under its own credentials.
+ * The variables of each pipeline are exported with its name as suffix, e.g.
+ * <tt>CS_PIPELINE_EXECUTION_ID_MY_SERVICE</tt>; pipelines whose names give the same suffix are rejected before
+ * anything is triggered. Failed pipelines do not fail the call, they are reported in the {@link Result} next to
+ * the variables of all pipelines.
+ */
+public class CodeStreamBatchCallable implements hudson.remoting.Callable<CodeStreamBatchCallable.Result, IOException>, Serializable {
+
+    private List<PluginParam> params;
+    private int maxConcurrency;
+    private boolean failFast;
+    private PrintStream logger;
+    private String owner;
+
+    public CodeStreamBatchCallable(List<PluginParam> params, int maxConcurrency, boolean failFast, PrintStream logger) {
+        this.params = params;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.failFast = failFast;
+        this.logger = logger;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    @Override
+    public Result call() throws IOException {
+        final Map<String, String> data = new ConcurrentHashMap<String, String>();
+        List<String> failures = new ArrayList<String>();
+        if (params.isEmpty()) {
+            return new Result(data, failures);
+        }
+        checkSuffixes(params);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrency, params.size()));
+        try {
+            Map<String, CodeStreamClient> clients = new HashMap<String, CodeStreamClient>();
+            for (PluginParam param : params) {
+                String key = clientKey(param);
+                if (!clients.containsKey(key)) {
+                    clients.put(key, new CodeStreamClient(param));
+                }
+            }
+            CompletionService<String> completionService = new ExecutorCompletionService<String>(executor);
+            Map<Future<String>, String> pipelineNames = new HashMap<Future<String>, String>();
+            for (final PluginParam param : params) {
+                final CodeStreamClient codeStreamClient = clients.get(clientKey(param));
+                Future<String> future = completionService.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        Map<String, String> pipelineData = new HashMap<String, String>();
+                        try {
+                            CodeStreamPipelineCallable callable = new CodeStreamPipelineCallable(param, logger);
+                            callable.setOwner(owner);
+                            callable.run(codeStreamClient, pipelineData);
+                        } finally {
+                            String suffix = "_" + toVariableSuffix(param.getPipelineName());
+                            for (Map.Entry<String, String> entry : pipelineData.entrySet()) {
+                                data.put(entry.getKey() + suffix, entry.getValue());
+                            }
+                        }
+                        return param.getPipelineName();
+                    }
+                });
+                pipelineNames.put(future, param.getPipelineName());
+            }
+
+            for (int i = 0; i < params.size(); i++) {
+                Future<String> done = completionService.take();
+                String pipelineName = pipelineNames.get(done);
+                try {
+                    done.get();
+                    logger.println("CodeStream pipeline " + pipelineName + " finished");
+                } catch (ExecutionException e) {
+                    String message = pipelineName + ": " + e.getCause().getMessage();
+                    logger.println("CodeStream pipeline " + message);
+                    failures.add(message);
+                    if (failFast) {
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for CodeStream pipelines");
+        } finally {
+            // Stops waiting for the remaining pipelines after a fail fast exit or an abort
+            executor.shutdownNow();
+        }
+
+        return new Result(new HashMap<String, String>(data), failures);
+    }
+
+    /**
+     * Fails when two pipelines would export their variables under the same suffix, e.g. <tt>a-b</tt> and
+     * <tt>a_b</tt>, or when a pipeline is listed twice.
+     */
+    static void checkSuffixes(List<PluginParam> params) throws IOException {
+        Map<String, String> names = new HashMap<String, String>();
+        for (PluginParam param : params) {
+            String suffix = toVariableSuffix(param.getPipelineName());
+            String other = names.put(suffix, param.getPipelineName());
+            if (other != null) {
+                throw new IOException("CodeStream pipelines " + other + " and " + param.getPipelineName()
+                        + " would both export their variables with suffix _" + suffix + "; each pipeline may only be listed once");
+            }
+        }
+    }
+
+    private static String clientKey(PluginParam param) {
+        return TokenCache.key(param.getServerUrl(), param.getTenant(), param.getCredentialsId());
+    }
+
+    static String toVariableSuffix(String pipelineName) {
+        StringBuilder suffix = new StringBuilder(pipelineName.length());
+        for (int i = 0; i < pipelineName.length(); i++) {
+            char c = pipelineName.charAt(i);
+            suffix.append(Character.isLetterOrDigit(c) ? Character.toUpperCase(c) : '_');
+        }
+        return suffix.toString();
+    }
+
+    @Override
+    public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+
+    }
+
+    /**
+     * Variables of every pipeline, including the ones that failed, and the failures.
+     */
+    public static final class Result implements Serializable {
+        private final Map<String, String> data;
+        private final List<String> failures;
+
+        Result(Map<String, String> data, List<String> failures) {
+            this.data = data;
+            this.failures = failures;
+        }
+
+        public Map<String, String> getData() {
+            return data;
+        }
+
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        public boolean isSuccess() {
+            return failures.isEmpty();
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.vmware.vcac.code.stream.jenkins.plugin;
 
 import com.vmware.vcac.code.stream.jenkins.plugin.util.EnvVariableResolver;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionResultStore;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.JsonPath;
 import hudson.EnvVars;
 import hudson.Extension;
+import hudson.util.ComboBoxModel;
 import hudson.util.ListBoxModel;
 import hudson.Launcher;
 import hudson.Util;
@@ -11,6 +14,9 @@ import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.EnvironmentContributingAction;
 import hudson.model.ItemGroup;
+import hudson.model.Run;
+import hudson.XmlFile;
+import jenkins.model.RunAction2;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.FormValidation;	
@@ -25,26 +31,38 @@ import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredenti
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.vmware.vcac.code.stream.jenkins.plugin.CodeStreamBuilder.DescriptorImpl.CodeStreamEnvAction;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSummary;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelineParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionLocation;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.PluginParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PollStrategy;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskFailureMode;
 
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 import static java.util.Arrays.asList;
 import jenkins.model.Jenkins;
 
@@ -78,6 +96,11 @@ public class CodeStreamBuilder extends Builder implements Serializable {
     private String credentialsId;
     private boolean waitExec;
     private List<PipelineParam> pipelineParams;
+    private String pollStrategy;
+    private String executionLocation;
+    private int coalesceWindow;
+    private String taskFailureMode;
+    private String outputVariables;
 
 
     // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
@@ -118,6 +141,51 @@ public class CodeStreamBuilder extends Builder implements Serializable {
         return waitExec;
     }
 
+    public String getPollStrategy() {
+        return pollStrategy;
+    }
+
+    @DataBoundSetter
+    public void setPollStrategy(String pollStrategy) {
+        this.pollStrategy = fixEmptyAndTrim(pollStrategy);
+    }
+
+    public String getExecutionLocation() {
+        return executionLocation;
+    }
+
+    @DataBoundSetter
+    public void setExecutionLocation(String executionLocation) {
+        this.executionLocation = fixEmptyAndTrim(executionLocation);
+    }
+
+    public int getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    @DataBoundSetter
+    public void setCoalesceWindow(int coalesceWindow) {
+        this.coalesceWindow = Math.max(0, coalesceWindow);
+    }
+
+    public String getTaskFailureMode() {
+        return taskFailureMode;
+    }
+
+    @DataBoundSetter
+    public void setTaskFailureMode(String taskFailureMode) {
+        this.taskFailureMode = fixEmptyAndTrim(taskFailureMode);
+    }
+
+    public String getOutputVariables() {
+        return outputVariables;
+    }
+
+    @DataBoundSetter
+    public void setOutputVariables(String outputVariables) {
+        this.outputVariables = fixEmptyAndTrim(outputVariables);
+    }
+
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
         PrintStream logger = listener.getLogger();
@@ -125,12 +193,22 @@ public class CodeStreamBuilder extends Builder implements Serializable {
         PluginParam param = new PluginParam(helper.replaceBuildParamWithValue(serverUrl),
                  helper.replaceBuildParamWithValue(tenant), helper.replaceBuildParamWithValue(pipelineName), helper.replaceBuildParamWithValue(credentialsId), waitExec, helper.replaceBuildParamWithValue(pipelineParams));
         logger.println("Starting CodeStream pipeline execution of pipeline : " + param.getPipelineName());
+        param.setPollStrategy(PollStrategy.fromValue(pollStrategy));
+        param.setCoalesceWindow(coalesceWindow);
+        param.setTaskFailureMode(TaskFailureMode.fromValue(taskFailureMode));
         param.validate();
+        Map<String, JsonPath> exports = ExecutionResultStore.parseExports(outputVariables);
         CodeStreamPipelineCallable callable = new CodeStreamPipelineCallable(param, logger);
-        Map<String, String> envVariables = launcher.getChannel().call(callable);
+        callable.setOwner(build.getExternalizableId());
+        Map<String, String> envVariables = ExecutionLocation.fromValue(executionLocation).call(launcher, callable);
+        Map<String, ExecutionSummary> summaries = ExecutionResultStore.store(build.getRootDir(), envVariables, exports);
+        for (ExecutionSummary summary : summaries.values()) {
+            summary.setPipelineName(param.getPipelineName());
+        }
         CodeStreamEnvAction action = new CodeStreamEnvAction();
         action.addAll(envVariables);
         build.addAction(action);
+        action.setSummaries(new ArrayList<ExecutionSummary>(summaries.values()));
         return true;
     }
 
@@ -161,6 +239,11 @@ public class CodeStreamBuilder extends Builder implements Serializable {
 
         private static final Logger log;
 
+        /**
+         * Upper bound of pipeline names offered in the drop down; other pipelines can still be typed in.
+         */
+        private static final int MAX_PIPELINE_ITEMS = Integer.getInteger(CodeStreamBuilder.class.getName() + ".maxPipelineItems", 500);
+
         static {
             log = Logger.getLogger(DescriptorImpl.class.getName());
         }
@@ -264,6 +347,22 @@ public class CodeStreamBuilder extends Builder implements Serializable {
 
             return FormValidation.ok();
         }
+        public FormValidation doCheckOutputVariables(@QueryParameter final String value) {
+            return DescriptorSupport.checkOutputVariables(value);
+        }
+
+        public ListBoxModel doFillTaskFailureModeItems() {
+            return DescriptorSupport.taskFailureModeItems();
+        }
+
+        public ListBoxModel doFillPollStrategyItems() {
+            return DescriptorSupport.pollStrategyItems();
+        }
+
+        public ListBoxModel doFillExecutionLocationItems() {
+            return DescriptorSupport.executionLocationItems();
+        }
+
         public ListBoxModel doFillStateItems(@QueryParameter String userName) {
             ListBoxModel m = new ListBoxModel();
             for (String s : asList("A","B","C"))
@@ -272,43 +371,19 @@ public class CodeStreamBuilder extends Builder implements Serializable {
             return m;
         }
         
-        public ListBoxModel doFillPipelineNameItems(@QueryParameter String credentialsId, @QueryParameter String tenant, @QueryParameter String serverUrl) {
-        	System.out.println("Checking for pipeline names...");
-        	ListBoxModel m = new ListBoxModel();
+        public ComboBoxModel doFillPipelineNameItems(@QueryParameter String credentialsId, @QueryParameter String tenant, @QueryParameter String serverUrl) {
+        	ComboBoxModel m = new ComboBoxModel();
+            if (StringUtils.isBlank(serverUrl) || StringUtils.isBlank(tenant) || StringUtils.isBlank(credentialsId)) {
+                // Waiting for server, tenant and credentials before looking up pipeline names
+                return m;
+            }
             PluginParam param = new PluginParam(serverUrl, tenant, "none", credentialsId, false, null);
-//            param.validate();
             try {
-            	System.out.println("Printing variables123456...");
-            	System.out.println(serverUrl);
-            	System.out.println(tenant);
-            	System.out.println(credentialsId);
-            	if(StringUtils.isBlank(serverUrl)) {
-            		System.out.println("URL is Empty");
-            	}
-            	if(StringUtils.isBlank(tenant)) {
-            		System.out.println("Tenant is Empty");
-            	}
-            	if(StringUtils.isBlank(credentialsId)) {
-            		System.out.println("Cred is Empty");
-            	}
-            	
-            	if(StringUtils.isBlank(serverUrl) || StringUtils.isBlank(tenant) || StringUtils.isBlank(credentialsId)) {
-            		System.out.println("Waiting for credentials before checking for pipeline names...");
-            	} else {
-            		System.out.println("All fields are filled. Making the API call now...");
-	            	CodeStreamClient codeStreamClient = new CodeStreamClient(param);
-					String[] pipelineNames = codeStreamClient.fetchPipelines();
-					if(pipelineNames != null) {
-						for(String s : pipelineNames) {
-							m.add(s);
-						}
-					}
-            	}
-				
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+                CodeStreamClient codeStreamClient = new CodeStreamClient(param);
+                m.addAll(Arrays.asList(codeStreamClient.fetchPipelines(null, MAX_PIPELINE_ITEMS)));
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Unable to list CodeStream pipelines of " + serverUrl, e);
+            }
             return m;
         }
 
@@ -322,18 +397,79 @@ public class CodeStreamBuilder extends Builder implements Serializable {
 					SSHAuthenticator.matcher(JSchConnector.class), credentials);
 		}
 
-    public static class CodeStreamEnvAction implements EnvironmentContributingAction {
-        private transient Map<String, String> data = new HashMap<String, String>();
+    /**
+     * Exported variables and execution summaries of the CodeStream steps of a build.
+     * <p/>
+     * The variables are small since the full execution response lives in a compressed file, and are persisted with
+     * the build. The summaries are kept in their own <tt>codestream/summary-*.xml</tt> and only read when the build
+     * page or the remote API asks for them, so loading a build for a history listing stays cheap.
+     */
+    @ExportedBean
+    public static class CodeStreamEnvAction implements EnvironmentContributingAction, RunAction2 {
+        private Map<String, String> data = new HashMap<String, String>();
+        private String summaryFileName;
+        private transient Run<?, ?> run;
+        private transient volatile SoftReference<List<ExecutionSummary>> summaries;
 
         private void add(String key, String val) {
             if (data == null) return;
             data.put(key, val);
         }
 
-        private void addAll(Map<String, String> map) {
+        void addAll(Map<String, String> map) {
+            if (data == null) {
+                data = new HashMap<String, String>();
+            }
             data.putAll(map);
         }
 
+        /**
+         * Persists the summaries of this build; call once the action is attached to the build.
+         */
+        void setSummaries(List<ExecutionSummary> list) throws IOException {
+            if (run == null || list.isEmpty()) {
+                return;
+            }
+            // One file per step, named after its first execution
+            summaryFileName = "summary-" + Util.rawEncode(String.valueOf(list.get(0).getExecutionId())) + ".xml";
+            getSummaryFile().write(new ArrayList<ExecutionSummary>(list));
+            summaries = new SoftReference<List<ExecutionSummary>>(list);
+        }
+
+        @Exported
+        @SuppressWarnings("unchecked")
+        public List<ExecutionSummary> getSummaries() {
+            SoftReference<List<ExecutionSummary>> ref = summaries;
+            List<ExecutionSummary> list = ref == null ? null : ref.get();
+            if (list == null) {
+                list = Collections.emptyList();
+                XmlFile file = run == null || summaryFileName == null ? null : getSummaryFile();
+                if (file != null && file.exists()) {
+                    try {
+                        list = (List<ExecutionSummary>) file.read();
+                    } catch (IOException e) {
+                        log.log(Level.WARNING, "Unable to read " + file, e);
+                    }
+                }
+                summaries = new SoftReference<List<ExecutionSummary>>(list);
+            }
+            return list;
+        }
+
+        private XmlFile getSummaryFile() {
+            return new XmlFile(Jenkins.XSTREAM2, new File(new File(run.getRootDir(), ExecutionResultStore.DIR_NAME), summaryFileName));
+        }
+
+        @Override
+        public void onAttached(Run<?, ?> r) {
+            this.run = r;
+        }
+
+        @Override
+        public void onLoad(Run<?, ?> r) {
+            this.run = r;
+        }
+
         @Override
         public void buildEnvVars(AbstractBuild<?, ?> build, EnvVars env) {
             if (data != null) env.putAll(data);
@@ -354,6 +490,7 @@ public class CodeStreamBuilder extends Builder implements Serializable {
             return null;
         }
 
+        @Exported
         public Map<String, String> getData() {
             return data;
         }
@@ -1,59 +1,99 @@
 package com.vmware.vcac.code.stream.jenkins.plugin;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
 import java.net.URLEncoder;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLException;
 
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSnapshot;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelinePage;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelineParam;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.PluginParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ReleasePipeline;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.CircuitBreaker;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.CodeStreamMetrics;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.CodeStreamMetrics.Endpoint;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.HttpClientPool;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.HttpTransport;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.JsonSupport;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.PipelineMetadataCache;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.PipelinePageParser;
 import com.vmware.vcac.code.stream.jenkins.plugin.util.ReleasePipelineExecutionInfoParser;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.RequestGovernor;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.TokenCache;
 
 import hudson.model.Item;
 import hudson.security.ACL;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.JsonNode;
 
 /**
  * Created by rsaraf on 3/23/2015.
  */
 public class CodeStreamClient {
-    private String token;
+    private static final Logger LOGGER = Logger.getLogger(CodeStreamClient.class.getName());
+
+    private volatile String token;
     private String FETCH_TOKEN = "";
     private String CHECK_EXEC_STATUS = "";
     private String FETCH_PIPELINE = "";
     private String FETCH_PIPELINES = "";
     private String EXECUTE_PIPELINE = "";
-    private String TOKEN_JSON = "{\"username\": \"%s\", \"password\": \"%s\", \"tenant\": \"%s\"}";
     private PluginParam params;
+    private String tokenKey;
 	public static final List<DomainRequirement> NO_REQUIREMENTS = Collections.<DomainRequirement> emptyList();
 
+    private static final int METADATA_CACHE_SIZE = Integer.getInteger(CodeStreamClient.class.getName() + ".metadataCacheSize", 1000);
+    private static final long METADATA_CACHE_TTL_MS = Long.getLong(CodeStreamClient.class.getName() + ".metadataCacheTtlMs", 60 * 1000L);
+    private static final int PAGE_SIZE = Integer.getInteger(CodeStreamClient.class.getName() + ".pageSize", 100);
+    private static final int PAGE_PREFETCH = Integer.getInteger(CodeStreamClient.class.getName() + ".pagePrefetch", 2);
+    private static final int MAX_ATTEMPTS = Integer.getInteger(CodeStreamClient.class.getName() + ".maxAttempts", 4);
+    private static final long RETRY_BASE_MS = Long.getLong(CodeStreamClient.class.getName() + ".retryBaseMs", 500L);
+    private static final long RETRY_MAX_MS = Long.getLong(CodeStreamClient.class.getName() + ".retryMaxMs", 10 * 1000L);
+    private static final PipelineMetadataCache<ReleasePipeline> PIPELINES =
+            new PipelineMetadataCache<ReleasePipeline>(METADATA_CACHE_SIZE, METADATA_CACHE_TTL_MS);
+    private static final PipelineMetadataCache<String[]> PIPELINE_NAMES =
+            new PipelineMetadataCache<String[]>(METADATA_CACHE_SIZE, METADATA_CACHE_TTL_MS);
+
     public CodeStreamClient(PluginParam params) throws IOException {
         this.params = params;
         this.FETCH_TOKEN = params.getServerUrl() + "/identity/api/tokens";
@@ -62,9 +102,14 @@ public class CodeStreamClient {
         this.FETCH_PIPELINE = codeStreamApiUrl + "?name=%s";
         this.EXECUTE_PIPELINE = codeStreamApiUrl + "%s/executions";
         this.CHECK_EXEC_STATUS = codeStreamApiUrl + "%s/executions/%s";
+        this.tokenKey = TokenCache.key(params.getServerUrl(), params.getTenant(), params.getCredentialsId());
         this.token = populateToken();
     }
 
+    public String getServerUrl() {
+        return params.getServerUrl();
+    }
+
 	private StandardUsernamePasswordCredentials lookupCredentialsById(final String credentialId) {
 		final List<StandardUsernamePasswordCredentials> all = CredentialsProvider.lookupCredentials(
 				StandardUsernamePasswordCredentials.class, (Item) null, ACL.SYSTEM, NO_REQUIREMENTS);
@@ -73,59 +118,135 @@ public class CodeStreamClient {
 	}
 
     private String populateToken() throws IOException {
+        return TokenCache.getToken(tokenKey, new Callable<TokenCache.Token>() {
+            @Override
+            public TokenCache.Token call() throws IOException {
+                return fetchToken();
+            }
+        });
+    }
+
+    private TokenCache.Token fetchToken() throws IOException {
     	StandardUsernamePasswordCredentials credentials = lookupCredentialsById(params.getCredentialsId());
-//        throw new IOException("BUILDING TOKEN FOR: " + credentials.getUsername() + credentials.getPassword().getPlainText());
+        if (credentials == null) {
+            throw new IOException("Credentials with id " + params.getCredentialsId() + " not found");
+        }
 
-        String tokenPayload = String.format(TOKEN_JSON, credentials.getUsername(), credentials.getPassword().getPlainText(), params.getTenant());
-        HttpResponse httpResponse = this.post(FETCH_TOKEN, tokenPayload);
+        Map<String, String> tokenRequest = new LinkedHashMap<String, String>();
+        tokenRequest.put("username", credentials.getUsername());
+        tokenRequest.put("password", credentials.getPassword().getPlainText());
+        tokenRequest.put("tenant", params.getTenant());
+        HttpPost postRequest = newPost(FETCH_TOKEN, JsonSupport.toJson(tokenRequest));
+        HttpResponse httpResponse = send(postRequest, Endpoint.TOKEN);
         String responseAsJson = this.getResponseAsJsonString(httpResponse);
-        JsonObject stringJsonAsObject = getJsonObject(responseAsJson);
-        JsonElement idElement = stringJsonAsObject.get("id");
+        JsonNode stringJsonAsObject = getJsonObject(responseAsJson);
+        JsonNode idElement = stringJsonAsObject.get("id");
         if (idElement == null) {
             handleError(stringJsonAsObject);
-        } else {
-            token = idElement.getAsString();
+            throw new IOException("Unable to fetch CodeStream token: " + responseAsJson);
         }
-        return token;
+        JsonNode expiresElement = stringJsonAsObject.get("expires");
+        return TokenCache.Token.fromResponse(idElement.asText(),
+                expiresElement == null || expiresElement.isNull() ? null : expiresElement.asText());
     }
+
+    /**
+     * Returns the names of all pipelines, following pagination, from the cache when possible.
+     */
     public String[] fetchPipelines() throws IOException{
-        JsonObject response = null;
-        String url = FETCH_PIPELINES;
-        HttpResponse pipelineResponse = get(url);
-        String responseAsJson = this.getResponseAsJsonString(pipelineResponse);
-        JsonObject stringJsonAsObject = getJsonObject(responseAsJson);
-        JsonElement contentElement = stringJsonAsObject.get("content");
-        String[] pipelineNames = null; 
-        if (contentElement == null) {
-            handleError(stringJsonAsObject);
-        } else {
-            JsonArray contents = contentElement.getAsJsonArray();
-        	pipelineNames = new String[contents.size()];
-            for(int i = 0; i < contents.size(); i++) {
-            	pipelineNames[i] = contents.get(i).getAsJsonObject().get("name").getAsString();
+        return fetchPipelines(null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns up to <tt>limit</tt> pipeline names containing <tt>filter</tt>, from the cache when possible.
+     */
+    public String[] fetchPipelines(String filter, int limit) throws IOException {
+        String cacheKey = PipelineMetadataCache.key(params.getServerUrl(), params.getTenant(),
+                "*" + StringUtils.defaultString(filter) + "*" + limit);
+        PipelineMetadataCache.Entry<String[]> cached = PIPELINE_NAMES.get(cacheKey);
+        if (cached != null && cached.isFresh()) {
+            return cached.getValue();
+        }
+        List<String> names = new ArrayList<String>();
+        PipelineNameIterator iterator = iteratePipelines(filter);
+        try {
+            while (names.size() < limit && iterator.hasNext()) {
+                names.add(iterator.next());
             }
-          
+        } finally {
+            iterator.close();
         }
+        String[] pipelineNames = names.toArray(new String[names.size()]);
+        PIPELINE_NAMES.put(cacheKey, pipelineNames, null, null);
         return pipelineNames;
     }
 
-    public JsonObject fetchPipeline(String pipelineName) throws IOException {
-        JsonObject response = null;
+    /**
+     * Lazily iterates over the pipeline names, requesting pages of {@link #PAGE_SIZE} as they are needed.
+     */
+    public PipelineNameIterator iteratePipelines(String filter) {
+        return new PipelineNameIterator(this, filter, PAGE_SIZE, PAGE_PREFETCH);
+    }
+
+    PipelinePage fetchPipelinePage(int page, int pageSize, String filter) throws IOException {
+        StringBuilder url = new StringBuilder(FETCH_PIPELINES)
+                .append("?page=").append(page)
+                .append("&limit=").append(pageSize);
+        if (StringUtils.isNotBlank(filter)) {
+            url.append("&$filter=").append(getEncodedString("substringof('" + filter.replace("'", "''") + "',name)"));
+        }
+        HttpResponse pipelineResponse = get(url.toString(), Endpoint.LIST_PIPELINES);
+        HttpEntity entity = pipelineResponse.getEntity();
+        try {
+            return PipelinePageParser.read(entity.getContent());
+        } finally {
+            EntityUtils.consume(entity);
+        }
+    }
+
+    /**
+     * Looks up a pipeline by name. Definitions are cached per server and tenant, and once the cache entry is
+     * older than its TTL it is revalidated with a conditional request instead of being downloaded again.
+     */
+    public ReleasePipeline fetchPipeline(String pipelineName) throws IOException {
+        return fetchPipeline(pipelineName, false);
+    }
+
+    /**
+     * Looks up a pipeline by name, asking the server whether the cached definition is still current even
+     * when it is within its TTL.
+     */
+    public ReleasePipeline revalidatePipeline(String pipelineName) throws IOException {
+        return fetchPipeline(pipelineName, true);
+    }
+
+    private ReleasePipeline fetchPipeline(String pipelineName, boolean revalidate) throws IOException {
+        String cacheKey = PipelineMetadataCache.key(params.getServerUrl(), params.getTenant(), pipelineName);
+        PipelineMetadataCache.Entry<ReleasePipeline> cached = PIPELINES.get(cacheKey);
+        if (cached != null && cached.isFresh() && !revalidate) {
+            return cached.getValue();
+        }
+        ReleasePipeline response = null;
         String url = String.format(FETCH_PIPELINE, getEncodedString(pipelineName));
-        HttpResponse pipelineResponse = get(url);
+        HttpResponse pipelineResponse = conditionalGet(url, cached);
+        if (isNotModified(pipelineResponse, cached)) {
+            PIPELINES.revalidated(cacheKey, cached);
+            return cached.getValue();
+        }
         String responseAsJson = this.getResponseAsJsonString(pipelineResponse);
-        JsonObject stringJsonAsObject = getJsonObject(responseAsJson);
-        JsonElement contentElement = stringJsonAsObject.get("content");
+        JsonNode stringJsonAsObject = getJsonObject(responseAsJson);
+        JsonNode contentElement = stringJsonAsObject.get("content");
         if (contentElement == null) {
             handleError(stringJsonAsObject);
         } else {
-            JsonArray contents = contentElement.getAsJsonArray();
-            if (contents.size() == 1) {
-                response = contents.get(0).getAsJsonObject();
+            if (contentElement.size() == 1) {
+                response = JsonSupport.reader(ReleasePipeline.class).readValue(contentElement.get(0));
+                PIPELINES.put(cacheKey, response, getHeader(pipelineResponse, "ETag"), getHeader(pipelineResponse, "Last-Modified"));
             } else {
-                if (contents.size() > 1) {
+                PIPELINES.invalidate(cacheKey);
+                if (contentElement.size() > 1) {
                     throw new IOException("More than one pipeline with name " + pipelineName + " found");
-                } else if (contents.size() < 1) {
+                } else if (contentElement.size() < 1) {
                     throw new IOException("Pipeline with name " + pipelineName + " not found");
                 }
             }
@@ -133,16 +254,42 @@ public class CodeStreamClient {
         return response;
     }
 
+    private HttpResponse conditionalGet(String URL, PipelineMetadataCache.Entry<?> cached) throws IOException {
+        HttpGet request = newGet(URL);
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                request.setHeader("If-None-Match", cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                request.setHeader("If-Modified-Since", cached.getLastModified());
+            }
+        }
+        return execute(request, Endpoint.FETCH_PIPELINE);
+    }
+
+    private boolean isNotModified(HttpResponse response, PipelineMetadataCache.Entry<?> cached) throws IOException {
+        if (cached != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            EntityUtils.consume(response.getEntity());
+            return true;
+        }
+        return false;
+    }
+
+    private static String getHeader(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
     private String getEncodedString(String pipelineName) throws UnsupportedEncodingException {
         return URLEncoder.encode(pipelineName, "UTF-8");
     }
-    public JsonObject executePipeline(String pipelineId, List<PipelineParam> pipelineParams) throws IOException {
-    	JsonObject response = null;
+    public JsonNode executePipeline(String pipelineId, List<PipelineParam> pipelineParams) throws IOException {
+    	JsonNode response = null;
         String url = String.format(EXECUTE_PIPELINE, pipelineId);
-        Gson gson = new Gson();
-        String pipelineParamsArray = gson.toJson(pipelineParams);
-        System.out.println("HELLO - " + pipelineParams);
-        String payload = String.format("{\"description\": \"%s\", \"pipelineParams\": %s}", "Executed from jenkins", pipelineParamsArray);
+        Map<String, Object> executionRequest = new LinkedHashMap<String, Object>();
+        executionRequest.put("description", "Executed from jenkins");
+        executionRequest.put("pipelineParams", pipelineParams);
+        String payload = JsonSupport.toJson(executionRequest);
         HttpResponse httpResponse = this.post(url, payload);
         String responseAsJson = this.getResponseAsJsonString(httpResponse);
         response = getJsonObject(responseAsJson);
@@ -152,97 +299,475 @@ public class CodeStreamClient {
 
     public ReleasePipelineExecutionInfoParser getPipelineExecutionResponse(String pipelineId, String pipelineExecId) throws IOException {
         String url = String.format(CHECK_EXEC_STATUS, pipelineId, pipelineExecId);
-        HttpResponse httpResponse = this.get(url);
+        return readExecution(this.get(url, Endpoint.RESULT), pipelineExecId);
+    }
+
+    /**
+     * Lightweight status check used while polling, see {@link ReleasePipelineExecutionInfoParser#readSnapshot}.
+     */
+    public ExecutionSnapshot getPipelineExecutionStatus(String pipelineId, String pipelineExecId) throws IOException {
+        String url = String.format(CHECK_EXEC_STATUS, pipelineId, pipelineExecId);
+        return readStatus(this.get(url, Endpoint.STATUS), pipelineExecId);
+    }
+
+    /**
+     * Asynchronous {@link #getPipelineExecutionResponse}, see {@link #getPipelineExecutionStatusAsync}.
+     */
+    public ListenableFuture<ReleasePipelineExecutionInfoParser> getPipelineExecutionResponseAsync(
+            String pipelineId, final String pipelineExecId, Executor executor) throws IOException {
+        String url = String.format(CHECK_EXEC_STATUS, pipelineId, pipelineExecId);
+        return Futures.transform(executeAsync(newGet(url), Endpoint.RESULT, executor),
+                new AsyncFunction<HttpResponse, ReleasePipelineExecutionInfoParser>() {
+                    @Override
+                    public ListenableFuture<ReleasePipelineExecutionInfoParser> apply(HttpResponse response) throws IOException {
+                        return Futures.immediateFuture(readExecution(response, pipelineExecId));
+                    }
+                }, executor);
+    }
+
+    /**
+     * Asynchronous {@link #getPipelineExecutionStatus} for the {@link ExecutionPoller}. The request is sent over
+     * {@link HttpTransport#executeAsync} without waiting for the {@link RequestGovernor}, and the response is
+     * parsed by the given executor, never by an I/O thread of the transport. Requests are not retried.
+     *
+     * @throws IOException when the request could not be sent at all, e.g. because the governor has no free slot
+     */
+    public ListenableFuture<ExecutionSnapshot> getPipelineExecutionStatusAsync(
+            String pipelineId, final String pipelineExecId, Executor executor) throws IOException {
+        String url = String.format(CHECK_EXEC_STATUS, pipelineId, pipelineExecId);
+        return Futures.transform(executeAsync(newGet(url), Endpoint.STATUS, executor),
+                new AsyncFunction<HttpResponse, ExecutionSnapshot>() {
+                    @Override
+                    public ListenableFuture<ExecutionSnapshot> apply(HttpResponse response) throws IOException {
+                        return Futures.immediateFuture(readStatus(response, pipelineExecId));
+                    }
+                }, executor);
+    }
+
+    private ReleasePipelineExecutionInfoParser readExecution(HttpResponse httpResponse, String pipelineExecId) throws IOException {
+        checkExecutionFound(httpResponse, pipelineExecId);
         String responseAsJson = this.getResponseAsJsonString(httpResponse);
         return new ReleasePipelineExecutionInfoParser(responseAsJson);
     }
 
-    private JsonObject getJsonObject(String responseAsJson) {
-        JsonElement execResponseParse = new JsonParser().parse(responseAsJson);
-        return execResponseParse.getAsJsonObject();
+    private static ExecutionSnapshot readStatus(HttpResponse httpResponse, String pipelineExecId) throws IOException {
+        checkExecutionFound(httpResponse, pipelineExecId);
+        HttpEntity entity = httpResponse.getEntity();
+        try {
+            return ReleasePipelineExecutionInfoParser.readSnapshot(entity.getContent());
+        } finally {
+            EntityUtils.consume(entity);
+        }
+    }
+
+    private static void checkExecutionFound(HttpResponse response, String pipelineExecId) throws IOException {
+        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+            EntityUtils.consume(response.getEntity());
+            throw new ExecutionNotFoundException("CodeStream execution " + pipelineExecId + " does not exist");
+        }
+    }
+
+    /**
+     * Asks CodeStream to cancel a running execution. Cancelling twice does no harm, so the request is retried
+     * like a GET.
+     */
+    public void cancelPipelineExecution(String pipelineId, String pipelineExecId) throws IOException {
+        String url = String.format(CHECK_EXEC_STATUS, pipelineId, pipelineExecId) + "/cancel";
+        HttpResponse httpResponse = execute(newPost(url, "{}"), Endpoint.CANCEL);
+        int statusCode = httpResponse.getStatusLine().getStatusCode();
+        if (statusCode >= 400 && httpResponse.getEntity() != null) {
+            throw new IOException("Unable to cancel execution " + pipelineExecId + ": HTTP " + statusCode + " "
+                    + this.getResponseAsJsonString(httpResponse));
+        }
+        EntityUtils.consume(httpResponse.getEntity());
+        if (statusCode >= 400) {
+            throw new IOException("Unable to cancel execution " + pipelineExecId + ": HTTP " + statusCode);
+        }
+    }
+
+    private JsonNode getJsonObject(String responseAsJson) throws IOException {
+        JsonNode node = JsonSupport.readTree(responseAsJson);
+        if (node == null || !node.isObject()) {
+            throw new IOException("Unexpected CodeStream response: " + responseAsJson);
+        }
+        return node;
     }
 
     public HttpResponse get(String URL) throws IOException {
-        CloseableHttpClient httpClient = null;
+        return get(URL, Endpoint.OTHER);
+    }
+
+    private HttpResponse get(String URL, Endpoint endpoint) throws IOException {
+        return execute(newGet(URL), endpoint);
+    }
+
+    private static HttpGet newGet(String URL) {
+        HttpGet request = new HttpGet(URL);
+        request.setHeader("accept", "application/json; charset=utf-8");
+        return request;
+    }
+
+    private HttpTransport getTransport() throws IOException {
+        return HttpClientPool.getTransport(params.getServerUrl());
+    }
+
+
+    private HttpResponse post(String URL, String payload) throws IOException {
+        return execute(newPost(URL, payload), Endpoint.EXECUTE);
+    }
+
+    private HttpPost newPost(String URL, String payload) throws IOException {
+        HttpPost postRequest = new HttpPost(URL);
+        StringEntity input = new StringEntity(payload);
+        input.setContentType("application/json");
+        postRequest.setEntity(input);
+        postRequest.setHeader("Content-Type", "application/json");
+        postRequest.setHeader("accept", "application/json; charset=utf-8");
+        return postRequest;
+    }
+
+    /**
+     * Executes an authenticated request with the current cached token. When the server rejects the cached token it is invalidated
+     * and the request is retried once with a freshly fetched one.
+     */
+    private HttpResponse execute(HttpRequestBase request, Endpoint endpoint) throws IOException {
+        // Cheap when cached, and picks up the proactive refresh for long running waits
+        token = populateToken();
+        setAuthorization(request);
+        HttpResponse response = send(request, endpoint);
+        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED && StringUtils.isNotBlank(token)) {
+            EntityUtils.consume(response.getEntity());
+            TokenCache.invalidate(tokenKey, token);
+            token = populateToken();
+            setAuthorization(request);
+            response = send(request, endpoint);
+        }
+        return response;
+    }
+
+    /**
+     * Asynchronous {@link #execute(HttpRequestBase, Endpoint)}: a rejected token is invalidated and the request sent
+     * once more from the given executor.
+     */
+    private ListenableFuture<HttpResponse> executeAsync(final HttpRequestBase request, final Endpoint endpoint,
+                                                        Executor executor) throws IOException {
+        return Futures.transform(sendAsync(request, endpoint), new AsyncFunction<HttpResponse, HttpResponse>() {
+            @Override
+            public ListenableFuture<HttpResponse> apply(HttpResponse response) throws IOException {
+                String rejected = token;
+                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_UNAUTHORIZED || StringUtils.isBlank(rejected)) {
+                    return Futures.immediateFuture(response);
+                }
+                EntityUtils.consume(response.getEntity());
+                TokenCache.invalidate(tokenKey, rejected);
+                request.reset();
+                return sendAsync(request, endpoint);
+            }
+        }, executor);
+    }
+
+    /**
+     * Sends a request once over {@link HttpTransport#executeAsync}, if the {@link RequestGovernor} has a slot free
+     * at once. Fetching a token that is due for a refresh still blocks the calling thread. The governor slot is
+     * given back and the outcome reported to the {@link CircuitBreaker} and the {@link CodeStreamMetrics} from
+     * whichever thread completes the response, which is all that happens there.
+     */
+    private ListenableFuture<HttpResponse> sendAsync(HttpRequestBase request, Endpoint endpoint) throws IOException {
+        final CodeStreamMetrics.EndpointStats stats = CodeStreamMetrics.get(params.getServerUrl(), params.getTenant(), endpoint);
+        final CircuitBreaker breaker = CircuitBreaker.forServer(params.getServerUrl());
+        final RequestGovernor governor = RequestGovernor.forServer(params.getServerUrl());
+        final long start = System.currentTimeMillis();
+        token = populateToken();
+        setAuthorization(request);
+        HttpTransport transport = getTransport();
+        governor.tryAcquire(endpoint.getPriority());
+        ListenableFuture<HttpResponse> sent;
+        try {
+            breaker.beforeRequest();
+        } catch (IOException e) {
+            governor.release();
+            throw e;
+        }
         try {
-            httpClient = getHttpClient();
-            HttpGet request = new HttpGet(URL);
-            request.setHeader("accept", "application/json; charset=utf-8");
-            if (StringUtils.isNotBlank(token)) {
-                String authorization = "Bearer " + token;
-                request.setHeader("Authorization", authorization);
+            stats.request();
+            sent = transport.executeAsync(request);
+        } catch (RuntimeException e) {
+            governor.release();
+            breaker.onAbandoned();
+            throw e;
+        }
+        final SettableFuture<HttpResponse> result = SettableFuture.create();
+        Futures.addCallback(sent, new FutureCallback<HttpResponse>() {
+            @Override
+            public void onSuccess(HttpResponse response) {
+                governor.release();
+                stats.call(System.currentTimeMillis() - start);
+                result.set(received(response, breaker, stats));
             }
-            return httpClient.execute(request);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (KeyStoreException e) {
-            e.printStackTrace();
-        } catch (KeyManagementException e) {
-            e.printStackTrace();
+
+            @Override
+            public void onFailure(Throwable t) {
+                governor.release();
+                stats.call(System.currentTimeMillis() - start);
+                IOException e = t instanceof IOException ? (IOException) t : new IOException(t.getMessage(), t);
+                if (!failed(e, breaker, stats)) {
+                    breaker.onAbandoned();
+                }
+                result.setException(e);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
+    }
+
+    /**
+     * Sends a request once the {@link RequestGovernor} of the server lets it through, retrying transient failures.
+     * <p/>
+     * GETs and token requests are retried on I/O errors and on 502, 503 and 504 with capped exponential backoff,
+     * honouring <tt>Retry-After</tt>, and so are cancel requests. Triggering a pipeline is not idempotent and is only retried when the
+     * connection could not be established, i.e. when the server cannot have seen it. Requests sent from an
+     * {@link ExecutionPoller} thread neither wait for the governor nor are retried here: a busy governor or a
+     * transient failure is thrown and the poller polls again later, so one slow or saturated server does not hold
+     * up the executions of the others. Every outcome is reported
+     * to the {@link CircuitBreaker} of the server, which fails requests at once while the server is down, and
+     * recorded in the {@link CodeStreamMetrics} of the endpoint.
+     */
+    private HttpResponse send(HttpRequestBase request, Endpoint endpoint) throws IOException {
+        CodeStreamMetrics.EndpointStats stats = CodeStreamMetrics.get(params.getServerUrl(), params.getTenant(), endpoint);
+        long start = System.currentTimeMillis();
+        try {
+            return send(request, endpoint, stats);
+        } finally {
+            stats.call(System.currentTimeMillis() - start);
         }
-        return null;
     }
 
-    private CloseableHttpClient getHttpClient() throws NoSuchAlgorithmException, KeyStoreException, KeyManagementException {
-        SSLContextBuilder builder = new SSLContextBuilder();
-        builder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
-        SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(
-                builder.build());
-        return HttpClients.custom().setSSLSocketFactory(
-                sslsf).build();
+    private HttpResponse send(HttpRequestBase request, Endpoint endpoint, CodeStreamMetrics.EndpointStats stats) throws IOException {
+        boolean idempotent = request instanceof HttpGet || endpoint == Endpoint.TOKEN || endpoint == Endpoint.CANCEL;
+        boolean mayWait = !ExecutionPoller.isPollerThread();
+        CircuitBreaker breaker = CircuitBreaker.forServer(params.getServerUrl());
+        RequestGovernor governor = RequestGovernor.forServer(params.getServerUrl());
+        for (int attempt = 1; ; attempt++) {
+            if (attempt > 1) {
+                stats.retry();
+            }
+            String retryAfter;
+            if (mayWait) {
+                governor.acquire(endpoint.getPriority());
+            } else {
+                governor.tryAcquire(endpoint.getPriority());
+            }
+            try {
+                HttpResponse response = exchange(request, breaker, stats);
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (!isUnavailable(statusCode) || !idempotent) {
+                    return response;
+                }
+                if (!mayWait) {
+                    EntityUtils.consume(response.getEntity());
+                    throw new IOException(request.getMethod() + " " + request.getURI() + " failed with HTTP " + statusCode);
+                }
+                if (attempt >= MAX_ATTEMPTS) {
+                    return response;
+                }
+                LOGGER.log(Level.FINE, "Retrying {0} {1} after HTTP {2}, attempt {3}",
+                        new Object[]{request.getMethod(), request.getURI(), statusCode, attempt});
+                retryAfter = getHeader(response, "Retry-After");
+                EntityUtils.consume(response.getEntity());
+            } catch (IOException e) {
+                if (!mayWait || attempt >= MAX_ATTEMPTS || !isRetryable(e, idempotent)) {
+                    throw e;
+                }
+                LOGGER.log(Level.FINE, "Retrying " + request.getMethod() + " " + request.getURI() + " after attempt " + attempt, e);
+                retryAfter = null;
+            } finally {
+                governor.release();
+            }
+            // Wait without holding a slot of the governor
+            request.reset();
+            backoff(attempt, retryAfter);
+        }
     }
 
+    /**
+     * Sends a request once, reporting its outcome to the circuit breaker. Permanent errors are not held against
+     * the server, but still free the trial slot of a half-open circuit.
+     */
+    private HttpResponse exchange(HttpRequestBase request, CircuitBreaker breaker, CodeStreamMetrics.EndpointStats stats) throws IOException {
+        breaker.beforeRequest();
+        boolean reported = false;
+        try {
+            stats.request();
+            HttpResponse response;
+            try {
+                response = getTransport().execute(request);
+            } catch (IOException e) {
+                reported = failed(e, breaker, stats);
+                throw e;
+            }
+            reported = true;
+            return received(response, breaker, stats);
+        } finally {
+            if (!reported) {
+                breaker.onAbandoned();
+            }
+        }
+    }
 
-    private HttpResponse post(String URL, String payload) throws IOException {
-        CloseableHttpClient httpClient = null;
+    /**
+     * Records a response and reports it to the circuit breaker.
+     */
+    private static HttpResponse received(HttpResponse response, CircuitBreaker breaker, CodeStreamMetrics.EndpointStats stats) {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (response.getEntity() != null) {
+            response.setEntity(new CountingEntity(response.getEntity(), stats));
+        }
+        if (statusCode >= 400) {
+            stats.error();
+        }
+        if (isUnavailable(statusCode)) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+        return response;
+    }
+
+    /**
+     * Records a request that got no response.
+     *
+     * @return whether the failure was reported to the circuit breaker, i.e. is held against the server
+     */
+    private static boolean failed(IOException e, CircuitBreaker breaker, CodeStreamMetrics.EndpointStats stats) {
+        stats.error();
+        if (isPermanent(e)) {
+            return false;
+        }
+        breaker.onFailure();
+        return true;
+    }
+
+    private static boolean isUnavailable(int statusCode) {
+        return statusCode == HttpStatus.SC_BAD_GATEWAY || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE
+                || statusCode == HttpStatus.SC_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * @return whether the error is one that retrying, or waiting for the server to recover, cannot fix
+     */
+    static boolean isPermanent(IOException e) {
+        return e instanceof UnknownHostException || e instanceof SSLException;
+    }
+
+    private static boolean isRetryable(IOException e, boolean idempotent) {
+        if (e instanceof CircuitBreaker.OpenException || isPermanent(e)) {
+            return false;
+        }
+        return idempotent || e instanceof ConnectException || e instanceof ConnectTimeoutException;
+    }
+
+    private static void backoff(int attempt, String retryAfter) throws IOException {
+        long delay = Math.min(RETRY_MAX_MS, RETRY_BASE_MS << Math.min(attempt - 1, 16));
+        // Spread the retries of builds that failed together
+        delay = delay / 2 + (long) (Math.random() * (delay / 2));
+        if (retryAfter != null) {
+            try {
+                delay = Math.min(RETRY_MAX_MS, Math.max(delay, Long.parseLong(retryAfter.trim()) * 1000L));
+            } catch (NumberFormatException e) {
+                // An HTTP date; the computed backoff will do
+            }
+        }
         try {
-            httpClient = getHttpClient();
-            HttpPost postRequest = new HttpPost(URL);
-            StringEntity input = new StringEntity(payload);
-            input.setContentType("application/json");
-            postRequest.setEntity(input);
-            postRequest.setHeader("Content-Type", "application/json");
-            postRequest.setHeader("accept", "application/json; charset=utf-8");
-            if (StringUtils.isNotBlank(token)) {
-                String authorization = "Bearer " + token;
-                postRequest.setHeader("Authorization", authorization);
-            }
-            return httpClient.execute(postRequest);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (KeyStoreException e) {
-            e.printStackTrace();
-        } catch (KeyManagementException e) {
-            e.printStackTrace();
-        }
-        return null;
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to retry a CodeStream request");
+        }
     }
 
-    private String getResponseAsJsonString(HttpResponse response) throws IOException {
-        BufferedReader br = new BufferedReader(
-                new InputStreamReader((response.getEntity().getContent())));
+    private void setAuthorization(HttpRequestBase request) {
+        if (StringUtils.isNotBlank(token)) {
+            String authorization = "Bearer " + token;
+            request.setHeader("Authorization", authorization);
+        }
+    }
 
-        StringBuilder output = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) {
-            output.append(line);
+    private String getResponseAsJsonString(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        try {
+            return EntityUtils.toString(entity, "UTF-8");
+        } finally {
+            // Fully consume the entity so the connection goes back to the shared pool
+            EntityUtils.consume(entity);
         }
-        return output.toString();
     }
 
-    public void handleError(JsonObject asJsonObject) throws IOException {
-        JsonElement errorElement = asJsonObject.get("errors");
-        if (errorElement != null) {
-            JsonObject errorElJsonObj = errorElement.getAsJsonArray().get(0).getAsJsonObject();
-            JsonElement messageEle = errorElJsonObj.get("systemMessage");
+    public void handleError(JsonNode asJsonObject) throws IOException {
+        JsonNode errorElement = asJsonObject.get("errors");
+        if (errorElement != null && errorElement.size() > 0) {
+            JsonNode errorElJsonObj = errorElement.get(0);
+            JsonNode messageEle = errorElJsonObj.get("systemMessage");
             if (messageEle == null) {
                 messageEle = errorElJsonObj.get("message");
             }
-            String systemErrorMessage = messageEle.toString();
+            String systemErrorMessage = messageEle == null ? errorElJsonObj.toString() : messageEle.asText();
             throw new IOException(systemErrorMessage);
         }
     }
 
-}
+    /**
+     * The execution is unknown to the server, e.g. because it was deleted; polling it again cannot succeed.
+     */
+    public static final class ExecutionNotFoundException extends IOException {
+        ExecutionNotFoundException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Counts the bytes of the body actually read into the metrics of the endpoint, whether or not the response
+     * announced its length.
+     */
+    private static final class CountingEntity extends HttpEntityWrapper {
+        private final CodeStreamMetrics.EndpointStats stats;
+
+        CountingEntity(HttpEntity wrapped, CodeStreamMetrics.EndpointStats stats) {
+            super(wrapped);
+            this.stats = stats;
+        }
 
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        stats.bytesRead(1);
+                    }
+                    return b;
+                }
 
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    stats.bytesRead(n);
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            InputStream in = getContent();
+            try {
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
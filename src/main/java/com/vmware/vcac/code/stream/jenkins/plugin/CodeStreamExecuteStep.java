@@ -0,0 +1,143 @@
+package com.vmware.vcac.code.stream.jenkins.plugin;
+
+import java.util.List;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelineParam;
+import hudson.Extension;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import static hudson.Util.fixEmptyAndTrim;
+
+/**
+ * Workflow step <tt>codeStreamExecute</tt>, the Pipeline counterpart of {@link CodeStreamBuilder}.
+ * <p/>
+ * Returns a map with the <tt>CS_PIPELINE_EXECUTION_*</tt> values. While the CodeStream execution runs the
+ * step holds no thread, see {@link CodeStreamExecuteStepExecution}.
+ */
+public class CodeStreamExecuteStep extends AbstractStepImpl {
+
+    private final String serverUrl;
+    private final String tenant;
+    private final String pipelineName;
+    private final String credentialsId;
+    private boolean waitExec = true;
+    private List<PipelineParam> pipelineParams;
+    private String pollStrategy;
+    private String outputVariables;
+    private int coalesceWindow;
+    private String taskFailureMode;
+
+    @DataBoundConstructor
+    public CodeStreamExecuteStep(String serverUrl, String tenant, String pipelineName, String credentialsId) {
+        this.serverUrl = fixEmptyAndTrim(serverUrl);
+        this.tenant = fixEmptyAndTrim(tenant);
+        this.pipelineName = fixEmptyAndTrim(pipelineName);
+        this.credentialsId = fixEmptyAndTrim(credentialsId);
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public String getPipelineName() {
+        return pipelineName;
+    }
+
+    public String getCredentialsId() {
+        return credentialsId;
+    }
+
+    public boolean isWaitExec() {
+        return waitExec;
+    }
+
+    @DataBoundSetter
+    public void setWaitExec(boolean waitExec) {
+        this.waitExec = waitExec;
+    }
+
+    public List<PipelineParam> getPipelineParams() {
+        return pipelineParams;
+    }
+
+    @DataBoundSetter
+    public void setPipelineParams(List<PipelineParam> pipelineParams) {
+        this.pipelineParams = pipelineParams;
+    }
+
+    public String getPollStrategy() {
+        return pollStrategy;
+    }
+
+    @DataBoundSetter
+    public void setPollStrategy(String pollStrategy) {
+        this.pollStrategy = fixEmptyAndTrim(pollStrategy);
+    }
+
+    public String getOutputVariables() {
+        return outputVariables;
+    }
+
+    @DataBoundSetter
+    public void setOutputVariables(String outputVariables) {
+        this.outputVariables = fixEmptyAndTrim(outputVariables);
+    }
+
+    public int getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    @DataBoundSetter
+    public void setCoalesceWindow(int coalesceWindow) {
+        this.coalesceWindow = Math.max(0, coalesceWindow);
+    }
+
+    public String getTaskFailureMode() {
+        return taskFailureMode;
+    }
+
+    @DataBoundSetter
+    public void setTaskFailureMode(String taskFailureMode) {
+        this.taskFailureMode = fixEmptyAndTrim(taskFailureMode);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public DescriptorImpl() {
+            super(CodeStreamExecuteStepExecution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "codeStreamExecute";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Execute CodeStream Pipeline";
+        }
+
+        public FormValidation doCheckOutputVariables(@QueryParameter final String value) {
+            return DescriptorSupport.checkOutputVariables(value);
+        }
+
+        public ListBoxModel doFillTaskFailureModeItems() {
+            return DescriptorSupport.taskFailureModeItems();
+        }
+
+        public ListBoxModel doFillPollStrategyItems() {
+            return DescriptorSupport.pollStrategyItems();
+        }
+    }
+}
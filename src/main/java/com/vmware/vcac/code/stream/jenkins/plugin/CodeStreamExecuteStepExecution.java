@@ -0,0 +1,220 @@
+package com.vmware.vcac.code.stream.jenkins.plugin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.Inject;
+import com.vmware.vcac.code.stream.jenkins.plugin.CodeStreamBuilder.DescriptorImpl.CodeStreamEnvAction;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSnapshot;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSummary;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PluginParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PollStrategy;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ReleasePipeline;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskFailureMode;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionJournal;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionProgress;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionResultStore;
+import hudson.AbortException;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+
+/**
+ * Asynchronous execution of {@link CodeStreamExecuteStep}.
+ * <p/>
+ * Triggering happens on a background thread and the wait is a callback on the {@link ExecutionPoller} future,
+ * so neither the CPS thread nor an executor is held while CodeStream runs. The pipeline and execution ids are
+ * part of the persisted step state: after a controller restart {@link #onResume()} attaches to the same
+ * execution again instead of triggering a new one. An execution triggered just before the restart, whose id
+ * did not make it into the step state, is found in the {@link ExecutionJournal} under a key of its own step,
+ * so parallel steps of one build running the same pipeline never pick up each other's execution.
+ */
+public class CodeStreamExecuteStepExecution extends AbstractStepExecutionImpl {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(CodeStreamExecuteStepExecution.class.getName());
+
+    @Inject(optional = true)
+    private transient CodeStreamExecuteStep step;
+
+    private PluginParam params;
+    private String outputVariables;
+    /**
+     * Build id and a key of this step, the owner of its journal record.
+     */
+    private String owner;
+    private String pipelineId;
+    private String execId;
+    private transient volatile ListenableFuture<ExecutionPoller.Result> future;
+
+    @Override
+    public boolean start() throws Exception {
+        params = new PluginParam(step.getServerUrl(), step.getTenant(), step.getPipelineName(), step.getCredentialsId(),
+                step.isWaitExec(), step.getPipelineParams());
+        params.setPollStrategy(PollStrategy.fromValue(step.getPollStrategy()));
+        params.setCoalesceWindow(step.getCoalesceWindow());
+        params.setTaskFailureMode(TaskFailureMode.fromValue(step.getTaskFailureMode()));
+        params.validate();
+        outputVariables = step.getOutputVariables();
+        ExecutionResultStore.parseExports(outputVariables);
+        owner = getContext().get(Run.class).getExternalizableId() + "/" + UUID.randomUUID();
+        getListener().getLogger().println("Starting CodeStream pipeline execution of pipeline : " + params.getPipelineName());
+        Timer.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CodeStreamClient codeStreamClient = new CodeStreamClient(params);
+                    ReleasePipeline pipeline = CodeStreamPipelineCallable.fetchActivatedPipeline(codeStreamClient, params);
+                    pipelineId = pipeline.getId();
+                    execId = CodeStreamPipelineCallable.triggerPipeline(codeStreamClient, params, pipeline,
+                            getListener().getLogger());
+                    getListener().getLogger().println("Pipeline executed successfully with execution id :" + execId);
+                    if (params.isWaitExec()) {
+                        CodeStreamPipelineCallable.journal(params, owner, pipelineId, execId);
+                        attach(codeStreamClient);
+                    } else {
+                        getContext().onSuccess(newResult());
+                    }
+                } catch (Throwable t) {
+                    getContext().onFailure(t);
+                }
+            }
+        });
+        return false;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (execId == null) {
+            // Triggered, but Jenkins stopped before the step state was saved
+            ExecutionJournal.Record record = ExecutionJournal.get().findPending(owner);
+            if (record != null) {
+                pipelineId = record.getPipelineId();
+                execId = record.getExecId();
+            }
+        }
+        if (execId == null) {
+            getContext().onFailure(new AbortException("Jenkins restarted before the CodeStream execution id of "
+                    + params.getPipelineName() + " was known; not triggering it again"));
+            return;
+        }
+        Timer.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getListener().getLogger().println("Resuming wait for CodeStream execution " + execId);
+                    attach(new CodeStreamClient(params));
+                } catch (Throwable t) {
+                    getContext().onFailure(t);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        ListenableFuture<ExecutionPoller.Result> current = future;
+        if (current != null) {
+            current.cancel(false);
+        }
+        getContext().onFailure(cause);
+    }
+
+    private void attach(final CodeStreamClient codeStreamClient) throws IOException, InterruptedException {
+        getListener().getLogger().println("Waiting for pipeline execution to complete");
+        final ExecutionProgress progress = new ExecutionProgress(params.getPipelineName(), execId);
+        ListenableFuture<ExecutionPoller.Result> watched = ExecutionPoller.get().watch(codeStreamClient, pipelineId, execId,
+                params.getPollStrategy(), new ExecutionPoller.PollListener() {
+                    @Override
+                    public void onPoll(ExecutionSnapshot snapshot, int pollCount) {
+                        try {
+                            progress.report(snapshot, getListener().getLogger());
+                        } catch (Exception e) {
+                            LOGGER.log(Level.FINE, "Unable to log progress of " + execId, e);
+                        }
+                    }
+                }, params.getTaskFailureMode().isFailFast());
+        future = watched;
+        Futures.addCallback(watched, new FutureCallback<ExecutionPoller.Result>() {
+            @Override
+            public void onSuccess(final ExecutionPoller.Result result) {
+                // Called on the poller thread; writing the response file and saving the build must not hold it up
+                Timer.get().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        complete(result);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                if (!(t instanceof ExecutionPoller.TaskFailedException)) {
+                    getContext().onFailure(t);
+                    return;
+                }
+                // Called on the poller thread, which must not wait for the cancel request
+                Timer.get().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            CodeStreamPipelineCallable.afterTaskFailure(codeStreamClient, params, pipelineId, execId,
+                                    getListener().getLogger());
+                        } catch (Exception e) {
+                            LOGGER.log(Level.FINE, "Unable to stop execution " + execId, e);
+                        }
+                        getContext().onFailure(new AbortException(t.getMessage()));
+                    }
+                });
+            }
+        });
+    }
+
+    private void complete(ExecutionPoller.Result result) {
+        Map<String, String> data = newResult();
+        try {
+            try {
+                CodeStreamPipelineCallable.collectResult(result, data);
+            } finally {
+                Run<?, ?> run = getContext().get(Run.class);
+                Map<String, ExecutionSummary> summaries = ExecutionResultStore.store(run.getRootDir(), data,
+                        ExecutionResultStore.parseExports(outputVariables));
+                for (ExecutionSummary summary : summaries.values()) {
+                    summary.setPipelineName(params.getPipelineName());
+                }
+                CodeStreamEnvAction action = new CodeStreamEnvAction();
+                action.addAll(data);
+                run.addAction(action);
+                action.setSummaries(new ArrayList<ExecutionSummary>(summaries.values()));
+            }
+            getContext().onSuccess(data);
+        } catch (InterruptedException e) {
+            getContext().onFailure(e);
+        } catch (IOException e) {
+            getContext().onFailure(new AbortException(e.getMessage()));
+        } catch (RuntimeException e) {
+            getContext().onFailure(e);
+        }
+    }
+
+    private Map<String, String> newResult() {
+        Map<String, String> data = new HashMap<String, String>();
+        data.put("CS_PIPELINE_EXECUTION_ID", execId);
+        return data;
+    }
+
+    private TaskListener getListener() throws IOException, InterruptedException {
+        return getContext().get(TaskListener.class);
+    }
+}
@@ -0,0 +1,61 @@
+package com.vmware.vcac.code.stream.jenkins.plugin;
+
+import java.util.List;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.util.CircuitBreaker;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.HttpClientPool;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.RequestGovernor;
+import hudson.Extension;
+import hudson.model.ManagementLink;
+
+/**
+ * "Manage Jenkins" page showing how the plugin loads each CodeStream server: queued, in-flight and rejected
+ * requests and circuit breaker state per server, the shared connection pool and the executions being waited for.
+ */
+@Extension
+public class CodeStreamManagementLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "network.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "codestream";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "CodeStream Servers";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Request queues, rate limiting and in-flight pipeline executions per CodeStream server.";
+    }
+
+    public List<RequestGovernor> getGovernors() {
+        return RequestGovernor.all();
+    }
+
+    public List<CircuitBreaker> getCircuitBreakers() {
+        return CircuitBreaker.all();
+    }
+
+    public int getInFlightExecutions() {
+        return ExecutionPoller.get().getInFlightCount();
+    }
+
+    public int getLeasedConnections() {
+        return HttpClientPool.getLeasedConnections();
+    }
+
+    public int getAvailableConnections() {
+        return HttpClientPool.getAvailableConnections();
+    }
+
+    public long getConnectionWaitCount() {
+        return HttpClientPool.getWaitCount();
+    }
+}
@@ -3,25 +3,32 @@ package com.vmware.vcac.code.stream.jenkins.plugin;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.reflect.TypeToken;
 import com.vmware.vcac.code.stream.jenkins.plugin.CodeStreamBuilder.DescriptorImpl;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSnapshot;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionStatus;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelineParam;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.PluginParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ReleasePipeline;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskExecutionInfo;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskFailureMode;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionCoalescer;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionJournal;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionProgress;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionResultStore;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.PipelineParamValidator;
 import com.vmware.vcac.code.stream.jenkins.plugin.util.ReleasePipelineExecutionInfoParser;
 import hudson.model.AbstractBuild;
 import hudson.remoting.Callable;
+import org.codehaus.jackson.JsonNode;
 import org.jenkinsci.remoting.RoleChecker;
 
 
@@ -31,9 +38,11 @@ import static hudson.Util.fixEmptyAndTrim;
  * Created by rsaraf on 3/25/2015.
  */
 public class CodeStreamPipelineCallable implements Callable<Map<String, String>, IOException>, Serializable {
+    private static final Logger LOGGER = Logger.getLogger(CodeStreamPipelineCallable.class.getName());
     private AbstractBuild<?, ?> build;
     private PluginParam params;
     private PrintStream logger;
+    private String owner;
     public CodeStreamPipelineCallable(PluginParam params, PrintStream logger) {
         this.params = params;
         this.logger = logger;
@@ -42,80 +51,199 @@ public class CodeStreamPipelineCallable implements Callable<Map<String, String>,
     
 
 
+    /**
+     * @param owner externalizable id of the build, recorded in the {@link ExecutionJournal}
+     */
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
     @Override
     public Map<String, String> call() throws IOException {
         Map<String, String> data = new HashMap<String, String>();
         try {
             CodeStreamClient codeStreamClient = new CodeStreamClient(params);
-            JsonObject pipelineJsonObj = codeStreamClient.fetchPipeline(params.getPipelineName());
-            String pipelineId = pipelineJsonObj.get("id").getAsString();
-            String status = pipelineJsonObj.get("status").getAsString();
-            Map<String, PipelineParam> defaultParams = getPipelineParams(pipelineJsonObj);
-            System.out.println("Successfully fetched Pipeline with id:" + pipelineId);
-            if (!status.equals("ACTIVATED")) {
-                throw new IOException(params.getPipelineName() + " is not activated");
+            run(codeStreamClient, data);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "CodeStream pipeline " + params.getPipelineName() + " failed", e);
+            throw new IOException(e.getMessage());
+        }
+        return data;
+    }
+
+    /**
+     * Triggers the pipeline over the given, possibly shared, client and waits for it when configured to.
+     * Results are put into <tt>data</tt> as soon as they are known, so callers still see the execution id
+     * and status of an execution that failed.
+     */
+    void run(CodeStreamClient codeStreamClient, Map<String, String> data) throws IOException, InterruptedException {
+        ReleasePipeline pipeline = fetchActivatedPipeline(codeStreamClient, params);
+        String execId = triggerPipeline(codeStreamClient, params, pipeline, logger);
+        data.put("CS_PIPELINE_EXECUTION_ID", execId);
+        if (params.isWaitExec()) {
+            journal(params, owner, pipeline.getId(), execId);
+            ExecutionPoller.Result result = waitForCompletion(codeStreamClient, pipeline.getId(), execId);
+            logger.println("Pipeline execution finished after " + result.getPollCount() + " status polls");
+            collectResult(result, data);
+        }
+    }
+
+    static ReleasePipeline fetchActivatedPipeline(CodeStreamClient codeStreamClient, PluginParam params) throws IOException {
+        ReleasePipeline pipeline = codeStreamClient.fetchPipeline(params.getPipelineName());
+        String pipelineId = pipeline.getId();
+        String status = pipeline.getStatus();
+        LOGGER.log(Level.FINE, "Fetched pipeline {0} with id {1}", new Object[]{params.getPipelineName(), pipelineId});
+        if (!"ACTIVATED".equals(status)) {
+            throw new IOException(params.getPipelineName() + " is not activated");
+        }
+        return pipeline;
+    }
+
+    /**
+     * Starts an execution of the pipeline with the user parameters, or with a coalescing window joins the
+     * execution another build started with the same parameters.
+     *
+     * @return the execution id
+     */
+    static String triggerPipeline(final CodeStreamClient codeStreamClient, final PluginParam params,
+                                  final ReleasePipeline pipeline, PrintStream logger) throws IOException, InterruptedException {
+        final List<PipelineParam> pipelineParams = resolvePipelineParams(codeStreamClient, params, pipeline);
+        if (params.getCoalesceWindow() <= 0) {
+            return executePipeline(codeStreamClient, params, pipeline, pipelineParams);
+        }
+        final boolean[] triggered = new boolean[1];
+        String key = ExecutionCoalescer.key(params.getServerUrl(), params.getTenant(), params.getCredentialsId(),
+                pipeline.getId(), pipelineParams);
+        String execId = ExecutionCoalescer.coalesce(key, params.getCoalesceWindow() * 1000L, new ExecutionCoalescer.Trigger() {
+            @Override
+            public String trigger() throws IOException {
+                triggered[0] = true;
+                return executePipeline(codeStreamClient, params, pipeline, pipelineParams);
             }
-            List<PipelineParam> pipelineParams = new ArrayList();
-            if (!params.getPipelineParams().isEmpty()) {
-                for (PipelineParam userParam : params.getPipelineParams()) {
-                	
-                    PipelineParam newParam = new PipelineParam( fixEmptyAndTrim(userParam.getValue()), fixEmptyAndTrim(userParam.getName()));
-                	pipelineParams.add(newParam);
+        });
+        if (!triggered[0]) {
+            logger.println("Joined execution " + execId + " of pipeline " + params.getPipelineName()
+                    + ", triggered with the same parameters by another build");
+        }
+        return execId;
+    }
 
-                }
+    /**
+     * Checks the user parameters against the pipeline definition and merges in the defaults, so a typo fails the
+     * build before an execution is created. When the check fails on a cached definition, the definition is
+     * revalidated with the server once, in case the pipeline changed since it was cached.
+     */
+    static List<PipelineParam> resolvePipelineParams(CodeStreamClient codeStreamClient, PluginParam params, ReleasePipeline pipeline) throws IOException {
+        List<PipelineParam> userParams = new ArrayList<PipelineParam>();
+        if (params.getPipelineParams() != null) {
+            for (PipelineParam userParam : params.getPipelineParams()) {
+                userParams.add(new PipelineParam(fixEmptyAndTrim(userParam.getValue()), fixEmptyAndTrim(userParam.getName())));
             }
-            
-            JsonObject execJsonRes = codeStreamClient.executePipeline(pipelineId, pipelineParams);
-            JsonElement execIdElement = execJsonRes.get("id");
-            if (execIdElement != null) {
-                String execId = execIdElement.getAsString();
-                data.put("CS_PIPELINE_EXECUTION_ID", execId);
-                System.out.println("Pipeline executed successfully with execution id :" + execId);
-                if (params.isWaitExec()) {
-                    ReleasePipelineExecutionInfoParser parser = codeStreamClient.getPipelineExecutionResponse(pipelineId, execId);
-                    while (!parser.isPipelineCompleted()) {
-                    	logger.println("Waiting for pipeline execution to complete");
-                    	logger.println("Waiting 10 seconds...");
-
-                        System.out.println("Waiting for pipeline execution to complete");
-                        Thread.sleep(10 * 1000);
-                        parser = codeStreamClient.getPipelineExecutionResponse(pipelineId, execId);
-                    }
-                    ExecutionStatus pipelineExecStatus = parser.getPipelineExecStatus();
-                    data.put("CS_PIPELINE_EXECUTION_STATUS", pipelineExecStatus.toString());
-                    data.put("CS_PIPELINE_EXECUTION_RES", parser.getPipelineExeResponseAsJson());
-                    switch (pipelineExecStatus) {
-                        case COMPLETED:
-                            System.out.println("Pipeline complete successfully");
-                            break;
-                        case FAILED:
-                            TaskExecutionInfo failedTask = parser.getFailedTask();
-                            System.out.println("Pipeline execution failed");
-                            throw new IOException(failedTask.getTask().getName()  + " task failed with message :" + failedTask.getMessages());
-                        case CANCELED:
-                            throw new IOException("Pipeline execution cancelled. Please go to CodeStream for more details");
-                    }
+        }
+        try {
+            return PipelineParamValidator.merge(pipeline, userParams);
+        } catch (IOException e) {
+            ReleasePipeline latest = codeStreamClient.revalidatePipeline(params.getPipelineName());
+            if (latest == pipeline) {
+                throw e;
+            }
+            return PipelineParamValidator.merge(latest, userParams);
+        }
+    }
+
+    private static String executePipeline(CodeStreamClient codeStreamClient, PluginParam params, ReleasePipeline pipeline,
+                                          List<PipelineParam> pipelineParams) throws IOException {
+        JsonNode execJsonRes = codeStreamClient.executePipeline(pipeline.getId(), pipelineParams);
+        JsonNode execIdElement = execJsonRes.get("id");
+        if (execIdElement == null) {
+            codeStreamClient.handleError(execJsonRes);
+            throw new IOException("Unable to execute pipeline " + params.getPipelineName() + ": " + execJsonRes);
+        }
+        String execId = execIdElement.asText();
+        LOGGER.log(Level.FINE, "Pipeline {0} executed with execution id {1}", new Object[]{params.getPipelineName(), execId});
+        return execId;
+    }
+
+    /**
+     * Durably records an execution about to be waited for, so it is not lost if Jenkins stops meanwhile.
+     */
+    static void journal(PluginParam params, String owner, String pipelineId, String execId) {
+        ExecutionJournal.get().started(new ExecutionJournal.Record(owner, params.getServerUrl(), params.getTenant(),
+                params.getCredentialsId(), params.getPipelineName(), pipelineId, execId,
+                params.getPollStrategy() == null ? null : params.getPollStrategy().name(), null));
+    }
+
+    /**
+     * Exports the outcome of a finished execution into <tt>data</tt> and fails unless it completed.
+     */
+    static void collectResult(ExecutionPoller.Result result, Map<String, String> data) throws IOException {
+        ReleasePipelineExecutionInfoParser parser = result.getParser();
+        data.put("CS_PIPELINE_EXECUTION_POLLS", String.valueOf(result.getPollCount()));
+        ExecutionStatus pipelineExecStatus = parser.getPipelineExecStatus();
+        data.put("CS_PIPELINE_EXECUTION_STATUS", pipelineExecStatus == null ? "UNKNOWN" : pipelineExecStatus.toString());
+        data.put("CS_PIPELINE_EXECUTION_RES", parser.getSummaryJson());
+        // Moved into a file of the build by ExecutionResultStore once back on the controller
+        data.put(ExecutionResultStore.RAW_PREFIX, parser.getPipelineExeResponseAsJson());
+        if (pipelineExecStatus == null) {
+            throw new IOException("Pipeline execution finished with a status this plugin does not know. Please go to CodeStream for more details");
+        }
+        switch (pipelineExecStatus) {
+            case COMPLETED:
+                break;
+            case FAILED:
+                TaskExecutionInfo failedTask = parser.getFailedTask();
+                if (failedTask == null) {
+                    throw new IOException("Pipeline execution failed. Please go to CodeStream for more details");
                 }
-            } else {
-                codeStreamClient.handleError(execJsonRes);
+                String taskName = failedTask.getTask() != null ? failedTask.getTask().getName() : failedTask.getId();
+                throw new IOException(taskName + " task failed with message :" + failedTask.getMessages());
+            case CANCELED:
+                throw new IOException("Pipeline execution cancelled. Please go to CodeStream for more details");
+        }
+    }
+
+    private ExecutionPoller.Result waitForCompletion(CodeStreamClient codeStreamClient, String pipelineId, String execId) throws IOException, InterruptedException {
+        logger.println("Waiting for pipeline execution to complete");
+        final ExecutionProgress progress = new ExecutionProgress(params.getPipelineName(), execId);
+        Future<ExecutionPoller.Result> future = ExecutionPoller.get().watch(codeStreamClient, pipelineId, execId, params.getPollStrategy(),
+                new ExecutionPoller.PollListener() {
+                    @Override
+                    public void onPoll(ExecutionSnapshot snapshot, int pollCount) {
+                        progress.report(snapshot, logger);
+                    }
+                }, params.getTaskFailureMode().isFailFast());
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ExecutionPoller.TaskFailedException) {
+                afterTaskFailure(codeStreamClient, params, pipelineId, execId, logger);
             }
-        } catch (Exception e) {
-        	System.out.println(e.getMessage());
-            throw new IOException(e.getMessage());
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
         }
-        return data;
     }
 
-    private Map<String, PipelineParam> getPipelineParams(JsonObject pipelineJsonObj) {
-        Type type = new TypeToken<List<PipelineParam>>() {
-        }.getType();
-        Gson gson = new Gson();
-        List<PipelineParam> params = gson.fromJson(pipelineJsonObj.get("pipelineParams").getAsJsonArray().toString(), type);
-        Map<String, PipelineParam> paramMap = new HashMap<String, PipelineParam>();
-        for (PipelineParam param : params) {
-            paramMap.put(param.getName(), param);
+    /**
+     * Called when a fail-fast wait stopped at a failed task: cancels the rest of the execution when configured to.
+     */
+    static void afterTaskFailure(CodeStreamClient codeStreamClient, PluginParam params, String pipelineId, String execId, PrintStream logger) {
+        if (params.getTaskFailureMode() != TaskFailureMode.CANCEL) {
+            logger.println("Not waiting for the rest of execution " + execId + " after a task failed");
+            return;
+        }
+        try {
+            codeStreamClient.cancelPipelineExecution(pipelineId, execId);
+            logger.println("Cancelled execution " + execId + " after a task failed");
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to cancel execution " + execId, e);
+            logger.println("Unable to cancel execution " + execId + ": " + e.getMessage());
         }
-        return paramMap;
     }
 
     @Override
@@ -1,19 +1,25 @@
 package com.vmware.vcac.code.stream.jenkins.plugin;
 
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSummary;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelineParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionLocation;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.PluginParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PollStrategy;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskFailureMode;
 import com.vmware.vcac.code.stream.jenkins.plugin.util.EnvVariableResolver;
-import hudson.EnvVars;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionResultStore;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.JsonPath;
 import hudson.Extension;
 import hudson.Launcher;
 import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
-import hudson.model.EnvironmentContributingAction;
 import hudson.tasks.*;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
@@ -23,7 +29,7 @@ import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -42,6 +48,11 @@ public class CodeStreamPostBuild extends Notifier implements Serializable {
     private String credentialsId;
     private boolean waitExec;
     private List<PipelineParam> pipelineParams;
+    private String pollStrategy;
+    private String executionLocation;
+    private int coalesceWindow;
+    private String taskFailureMode;
+    private String outputVariables;
 
 
     // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
@@ -83,6 +94,51 @@ public class CodeStreamPostBuild extends Notifier implements Serializable {
         return waitExec;
     }
 
+    public String getPollStrategy() {
+        return pollStrategy;
+    }
+
+    @DataBoundSetter
+    public void setPollStrategy(String pollStrategy) {
+        this.pollStrategy = fixEmptyAndTrim(pollStrategy);
+    }
+
+    public String getExecutionLocation() {
+        return executionLocation;
+    }
+
+    @DataBoundSetter
+    public void setExecutionLocation(String executionLocation) {
+        this.executionLocation = fixEmptyAndTrim(executionLocation);
+    }
+
+    public int getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    @DataBoundSetter
+    public void setCoalesceWindow(int coalesceWindow) {
+        this.coalesceWindow = Math.max(0, coalesceWindow);
+    }
+
+    public String getTaskFailureMode() {
+        return taskFailureMode;
+    }
+
+    @DataBoundSetter
+    public void setTaskFailureMode(String taskFailureMode) {
+        this.taskFailureMode = fixEmptyAndTrim(taskFailureMode);
+    }
+
+    public String getOutputVariables() {
+        return outputVariables;
+    }
+
+    @DataBoundSetter
+    public void setOutputVariables(String outputVariables) {
+        this.outputVariables = fixEmptyAndTrim(outputVariables);
+    }
+
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
         PrintStream logger = listener.getLogger();
@@ -90,12 +146,22 @@ public class CodeStreamPostBuild extends Notifier implements Serializable {
         PluginParam param = new PluginParam(helper.replaceBuildParamWithValue(serverUrl),
                  helper.replaceBuildParamWithValue(tenant), helper.replaceBuildParamWithValue(pipelineName), helper.replaceBuildParamWithValue(credentialsId), waitExec, helper.replaceBuildParamWithValue(pipelineParams));
         logger.println("Starting CodeStream pipeline execution of pipeline : " + param.getPipelineName());
+        param.setPollStrategy(PollStrategy.fromValue(pollStrategy));
+        param.setCoalesceWindow(coalesceWindow);
+        param.setTaskFailureMode(TaskFailureMode.fromValue(taskFailureMode));
         param.validate();
+        Map<String, JsonPath> exports = ExecutionResultStore.parseExports(outputVariables);
         CodeStreamPipelineCallable callable = new CodeStreamPipelineCallable(param, logger);
-        Map<String, String> envVariables = launcher.getChannel().call(callable);
+        callable.setOwner(build.getExternalizableId());
+        Map<String, String> envVariables = ExecutionLocation.fromValue(executionLocation).call(launcher, callable);
+        Map<String, ExecutionSummary> summaries = ExecutionResultStore.store(build.getRootDir(), envVariables, exports);
+        for (ExecutionSummary summary : summaries.values()) {
+            summary.setPipelineName(param.getPipelineName());
+        }
         CodeStreamEnvAction action = new CodeStreamEnvAction();
         action.addAll(envVariables);
         build.addAction(action);
+        action.setSummaries(new ArrayList<ExecutionSummary>(summaries.values()));
         return true;
     }
 
@@ -210,43 +276,27 @@ public class CodeStreamPostBuild extends Notifier implements Serializable {
             return FormValidation.ok();
         }
 
-    }
-
-    public static class CodeStreamEnvAction implements EnvironmentContributingAction {
-        private transient Map<String, String> data = new HashMap<String, String>();
-
-        private void add(String key, String val) {
-            if (data == null) return;
-            data.put(key, val);
-        }
-
-        private void addAll(Map<String, String> map) {
-            data.putAll(map);
-        }
-
-        @Override
-        public void buildEnvVars(AbstractBuild<?, ?> build, EnvVars env) {
-            if (data != null) env.putAll(data);
+        public FormValidation doCheckOutputVariables(@QueryParameter final String value) {
+            return DescriptorSupport.checkOutputVariables(value);
         }
 
-        @Override
-        public String getIconFileName() {
-            return null;
+        public ListBoxModel doFillTaskFailureModeItems() {
+            return DescriptorSupport.taskFailureModeItems();
         }
 
-        @Override
-        public String getDisplayName() {
-            return null;
+        public ListBoxModel doFillPollStrategyItems() {
+            return DescriptorSupport.pollStrategyItems();
         }
 
-        @Override
-        public String getUrlName() {
-            return null;
+        public ListBoxModel doFillExecutionLocationItems() {
+            return DescriptorSupport.executionLocationItems();
         }
+    }
 
-        public Map<String, String> getData() {
-            return data;
-        }
+    /**
+     * Kept so builds recorded by older versions still load; behaves like {@link CodeStreamBuilder.DescriptorImpl.CodeStreamEnvAction}.
+     */
+    public static class CodeStreamEnvAction extends CodeStreamBuilder.DescriptorImpl.CodeStreamEnvAction {
     }
 }
 
@@ -0,0 +1,56 @@
+package com.vmware.vcac.code.stream.jenkins.plugin;
+
+import java.io.IOException;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionLocation;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PollStrategy;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskFailureMode;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionResultStore;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+
+/**
+ * Form helpers shared by the descriptors of the build steps, the post-build action and the Pipeline step.
+ */
+final class DescriptorSupport {
+
+    private DescriptorSupport() {
+    }
+
+    static ListBoxModel taskFailureModeItems() {
+        ListBoxModel m = new ListBoxModel();
+        for (TaskFailureMode mode : TaskFailureMode.values()) {
+            m.add(mode.getDisplayName(), mode.name());
+        }
+        return m;
+    }
+
+    static ListBoxModel pollStrategyItems() {
+        ListBoxModel m = new ListBoxModel();
+        for (PollStrategy strategy : PollStrategy.values()) {
+            m.add(strategy.getDisplayName(), strategy.name());
+        }
+        return m;
+    }
+
+    static ListBoxModel executionLocationItems() {
+        ListBoxModel m = new ListBoxModel();
+        for (ExecutionLocation location : ExecutionLocation.values()) {
+            m.add(location.getDisplayName(), location.name());
+        }
+        return m;
+    }
+
+    /**
+     * Checks the <tt>NAME=$.json.path</tt> lines of the output variables, so malformed paths are reported
+     * while configuring instead of failing the build.
+     */
+    static FormValidation checkOutputVariables(String value) {
+        try {
+            ExecutionResultStore.parseExports(value);
+            return FormValidation.ok();
+        } catch (IOException e) {
+            return FormValidation.error(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package com.vmware.vcac.code.stream.jenkins.plugin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionInfo;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSnapshot;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionStatus;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PluginParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PollStrategy;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskExecutionInfo;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.CodeStreamMetrics;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionCoalescer;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionJournal;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.HttpClientPool;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.PipelineRuntimeHistory;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ReleasePipelineExecutionInfoParser;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.RequestGovernor;
+
+/**
+ * Polls every in-flight pipeline execution of this JVM from a small shared scheduled pool.
+ * <p/>
+ * Executions are grouped per CodeStream server. Once per tick each server with due executions gets a single
+ * drain task which sends their polls one after the other, so the number of threads and connections does not grow
+ * with the number of waiting builds. Responses are handled by callbacks on the same pool: with the default
+ * blocking {@link com.vmware.vcac.code.stream.jenkins.plugin.util.HttpTransport} as soon as the drain task got
+ * them, with the <tt>async</tt> one whenever they arrive, without a poller thread waiting for any of them. When
+ * each execution is polled next is decided by its {@link PollStrategy}. Polls only stream the status out of the
+ * response; the full execution document is downloaded once, when the execution is finished, and completes the
+ * future returned to the caller.
+ * <p/>
+ * A status this plugin does not know is polled on while the execution has no end time, but only for
+ * <tt>maxUnknownPolls</tt> polls in a row; after that the watch fails instead of waiting forever.
+ * <p/>
+ * Status changes and finished executions are written to the {@link ExecutionJournal}; executions still
+ * pending there when Jenkins starts are watched again by {@link #reattachJournaledExecutions()}.
+ */
+public final class ExecutionPoller {
+
+    private static final Logger LOGGER = Logger.getLogger(ExecutionPoller.class.getName());
+
+    private static final String PREFIX = ExecutionPoller.class.getName() + ".";
+    static final int POOL_SIZE = Integer.getInteger(PREFIX + "poolSize", 4);
+    static final long TICK_MS = Long.getLong(PREFIX + "tickMs", 1000L);
+    static final int MAX_POLL_FAILURES = Integer.getInteger(PREFIX + "maxPollFailures", 10);
+    static final int MAX_UNKNOWN_POLLS = Integer.getInteger(PREFIX + "maxUnknownPolls", 30);
+    static final long DRAIN_BUDGET_MS = Long.getLong(PREFIX + "drainBudgetMs", 10 * 1000L);
+
+    private static final ExecutionPoller INSTANCE = new ExecutionPoller();
+
+    private final ConcurrentMap<String, ServerQueue> servers = new ConcurrentHashMap<String, ServerQueue>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler;
+    private final Executor callbacks;
+
+    private ExecutionPoller() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(POOL_SIZE, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new PollerThread(r, "CodeStream execution poller " + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        callbacks = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                // Responses completed by an I/O thread of the transport are handled on the pool instead
+                if (isPollerThread()) {
+                    command.run();
+                } else {
+                    scheduler.execute(command);
+                }
+            }
+        };
+        CodeStreamMetrics.registerGauges(new CodeStreamMetrics.GaugesMBean() {
+            @Override
+            public int getInFlightExecutions() {
+                return getInFlightCount();
+            }
+
+            @Override
+            public int getLeasedConnections() {
+                return HttpClientPool.getLeasedConnections();
+            }
+
+            @Override
+            public int getAvailableConnections() {
+                return HttpClientPool.getAvailableConnections();
+            }
+
+            @Override
+            public long getConnectionWaits() {
+                return HttpClientPool.getWaitCount();
+            }
+        });
+    }
+
+    public static ExecutionPoller get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts watching an execution, or joins the watch of an execution that is already watched. Every caller
+     * gets its own future and its listener called; polling stops early only once all of them cancelled.
+     */
+    public ListenableFuture<Result> watch(CodeStreamClient client, String pipelineId, String execId,
+                                          PollStrategy strategy, PollListener listener) {
+        return watch(client, pipelineId, execId, strategy, listener, false);
+    }
+
+    /**
+     * @param failOnTaskFailure fail the returned future with a {@link TaskFailedException} as soon as a poll sees
+     *                          a failed task, instead of waiting for the whole pipeline to finish
+     */
+    public ListenableFuture<Result> watch(CodeStreamClient client, String pipelineId, String execId,
+                                          PollStrategy strategy, PollListener listener, boolean failOnTaskFailure) {
+        ensureStarted();
+        String serverUrl = client.getServerUrl();
+        ServerQueue queue = servers.get(serverUrl);
+        if (queue == null) {
+            ServerQueue created = new ServerQueue(serverUrl);
+            queue = servers.putIfAbsent(serverUrl, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        Watch watch = new Watch(queue, callbacks, client, pipelineId, execId, strategy);
+        Watch existing = queue.watches.putIfAbsent(execId, watch);
+        if (existing != null && existing.future.isCancelled() && queue.watches.replace(execId, existing, watch)) {
+            existing = null;
+        }
+        return (existing != null ? existing : watch).subscribe(listener, failOnTaskFailure);
+    }
+
+    /**
+     * Attaches to the executions that were still running when Jenkins stopped, without triggering them again.
+     * A build step or Pipeline step resuming the same execution later joins the watch started here. Logging in
+     * happens on the poller threads, so a slow or unreachable server does not hold up Jenkins startup.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void reattachJournaledExecutions() {
+        for (ExecutionJournal.Record record : ExecutionJournal.get().getPending()) {
+            get().reattach(record, 0, 0);
+        }
+    }
+
+    /**
+     * Logs in and watches a journaled execution. Failures to log in are retried with backoff; once they keep
+     * failing the record stays journaled, to be attached to again on the next start.
+     */
+    private void reattach(final ExecutionJournal.Record record, final int failures, long delayMs) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                PluginParam params = new PluginParam(record.getServerUrl(), record.getTenant(), record.getPipelineName(),
+                        record.getCredentialsId(), true, null);
+                params.setPollStrategy(PollStrategy.fromValue(record.getPollStrategy()));
+                CodeStreamClient client;
+                try {
+                    client = new CodeStreamClient(params);
+                } catch (RequestGovernor.BusyException e) {
+                    // Requests of running builds go first; not a failure of the server
+                    reattach(record, failures, TICK_MS);
+                    return;
+                } catch (IOException e) {
+                    if (failures + 1 < MAX_POLL_FAILURES && !CodeStreamClient.isPermanent(e)) {
+                        LOGGER.log(Level.FINE, "Unable to reattach to CodeStream execution " + record.getExecId()
+                                + ", retrying", e);
+                        reattach(record, failures + 1, PollStrategy.EXPONENTIAL.nextDelayMillis(failures + 1, 0, 0));
+                    } else {
+                        LOGGER.log(Level.WARNING, "Unable to reattach to CodeStream execution " + record.getExecId()
+                                + ", trying again on the next start", e);
+                    }
+                    return;
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Unable to reattach to CodeStream execution " + record.getExecId(), e);
+                    return;
+                }
+                ListenableFuture<Result> future = watch(client, record.getPipelineId(), record.getExecId(),
+                        params.getPollStrategy(), null);
+                LOGGER.log(Level.INFO, "Reattached to CodeStream execution {0} of {1}, last seen {2}",
+                        new Object[]{record.getExecId(), record.getPipelineName(), record.getStatus()});
+                Futures.addCallback(future, new FutureCallback<Result>() {
+                    @Override
+                    public void onSuccess(Result result) {
+                        ExecutionInfo info = result.getParser().getExecutionInfo();
+                        LOGGER.log(Level.INFO, "Reattached CodeStream execution {0} of {1} finished as {2}",
+                                new Object[]{record.getExecId(), record.getPipelineName(),
+                                        info == null ? null : info.getStatus()});
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        LOGGER.log(Level.WARNING, "Lost track of reattached CodeStream execution " + record.getExecId(), t);
+                    }
+                });
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return whether the current thread is one of the poller's, which must not wait for retries
+     */
+    static boolean isPollerThread() {
+        return Thread.currentThread() instanceof PollerThread;
+    }
+
+    public int getInFlightCount() {
+        int count = 0;
+        for (ServerQueue queue : servers.values()) {
+            count += queue.watches.size();
+        }
+        return count;
+    }
+
+    private void ensureStarted() {
+        if (started.compareAndSet(false, true)) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    tick();
+                }
+            }, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        for (final ServerQueue queue : servers.values()) {
+            if (queue.hasDueWatches(now) && queue.draining.compareAndSet(false, true)) {
+                scheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            queue.drain();
+                        } finally {
+                            queue.draining.set(false);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private static final class PollerThread extends Thread {
+        PollerThread(Runnable r, String name) {
+            super(r, name);
+        }
+    }
+
+    /**
+     * Callback invoked from the poller thread after every successful poll, including the one that saw the
+     * execution finish.
+     */
+    private static final class Subscription {
+        private final SettableFuture<Result> future = SettableFuture.create();
+        private final PollListener listener;
+        private final boolean failOnTaskFailure;
+
+        Subscription(PollListener listener, boolean failOnTaskFailure) {
+            this.listener = listener;
+            this.failOnTaskFailure = failOnTaskFailure;
+        }
+    }
+
+    /**
+     * A task of a still running execution failed and the caller asked not to wait for the rest of the pipeline.
+     */
+    public static final class TaskFailedException extends IOException {
+        private final transient TaskExecutionInfo task;
+
+        TaskFailedException(TaskExecutionInfo task) {
+            super((task.getTask() != null ? task.getTask().getName() : task.getId()) + " task failed with message :"
+                    + task.getMessages());
+            this.task = task;
+        }
+
+        public TaskExecutionInfo getTask() {
+            return task;
+        }
+    }
+
+    public interface PollListener {
+        void onPoll(ExecutionSnapshot snapshot, int pollCount);
+    }
+
+    /**
+     * Final execution response together with the number of polls it took to get it.
+     */
+    public static final class Result {
+        private final ReleasePipelineExecutionInfoParser parser;
+        private final int pollCount;
+
+        Result(ReleasePipelineExecutionInfoParser parser, int pollCount) {
+            this.parser = parser;
+            this.pollCount = pollCount;
+        }
+
+        public ReleasePipelineExecutionInfoParser getParser() {
+            return parser;
+        }
+
+        public int getPollCount() {
+            return pollCount;
+        }
+    }
+
+    private static final class ServerQueue {
+        private final String serverUrl;
+        private final ConcurrentMap<String, Watch> watches = new ConcurrentHashMap<String, Watch>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        ServerQueue(String serverUrl) {
+            this.serverUrl = serverUrl;
+        }
+
+        boolean hasDueWatches(long now) {
+            for (Watch watch : watches.values()) {
+                if (!watch.inFlight && (watch.nextPollAt <= now || watch.future.isCancelled())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Sends the polls of the due executions, the longest overdue first, for at most {@link #DRAIN_BUDGET_MS}
+         * and only as long as the {@link RequestGovernor} of the server has a free slot. Executions left over are
+         * still due and are drained on the next tick; executions whose poll is still in flight are not due.
+         */
+        void drain() {
+            List<Watch> due = new ArrayList<Watch>();
+            long now = System.currentTimeMillis();
+            for (Watch watch : watches.values()) {
+                if (watch.inFlight) {
+                    continue;
+                }
+                if (watch.future.isCancelled()) {
+                    watch.done(null);
+                } else if (watch.nextPollAt <= now) {
+                    due.add(watch);
+                }
+            }
+            Collections.sort(due, new Comparator<Watch>() {
+                @Override
+                public int compare(Watch a, Watch b) {
+                    return a.nextPollAt < b.nextPollAt ? -1 : a.nextPollAt == b.nextPollAt ? 0 : 1;
+                }
+            });
+            long deadline = now + DRAIN_BUDGET_MS;
+            int polled = 0;
+            for (Watch watch : due) {
+                if (System.currentTimeMillis() >= deadline) {
+                    break;
+                }
+                polled++;
+                try {
+                    watch.poll();
+                } catch (RequestGovernor.BusyException e) {
+                    // Saturated by the requests of running builds; the rest of the polls can wait
+                    LOGGER.log(Level.FINE, "Deferring {0} polls of {1}: {2}",
+                            new Object[]{due.size() - polled + 1, serverUrl, e.getMessage()});
+                    break;
+                }
+            }
+            LOGGER.log(Level.FINEST, "Drained {0}, polled {1} of {2} due, {3} executions still in flight",
+                    new Object[]{serverUrl, polled, due.size(), watches.size()});
+        }
+    }
+
+    /**
+     * One watched execution. At most one request of it is in flight at a time; its response is handled by the
+     * callbacks executor, and the fields below are only touched by whoever handles the current response.
+     */
+    private static final class Watch {
+        private final ServerQueue queue;
+        private final Executor callbacks;
+        private final CodeStreamClient client;
+        private final String pipelineId;
+        private final String execId;
+        private final PollStrategy strategy;
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+        private final SettableFuture<Result> future = SettableFuture.create();
+        private final long startedAt;
+        private final long expectedRuntime;
+        private volatile long nextPollAt;
+        private volatile boolean inFlight;
+        private int pollCount;
+        private int consecutiveFailures;
+        private int consecutiveUnknown;
+
+        Watch(ServerQueue queue, Executor callbacks, CodeStreamClient client, String pipelineId, String execId,
+              PollStrategy strategy) {
+            this.queue = queue;
+            this.callbacks = callbacks;
+            this.client = client;
+            this.pipelineId = pipelineId;
+            this.execId = execId;
+            this.strategy = strategy == null ? PollStrategy.FIXED : strategy;
+            this.startedAt = System.currentTimeMillis();
+            this.expectedRuntime = PipelineRuntimeHistory.getExpectedRuntime(client.getServerUrl(), pipelineId);
+            this.nextPollAt = startedAt + this.strategy.nextDelayMillis(1, 0, expectedRuntime);
+        }
+
+        ListenableFuture<Result> subscribe(PollListener listener, boolean failOnTaskFailure) {
+            final Subscription subscription = new Subscription(listener, failOnTaskFailure);
+            subscriptions.add(subscription);
+            Futures.addCallback(future, new FutureCallback<Result>() {
+                @Override
+                public void onSuccess(Result result) {
+                    subscription.future.set(result);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    subscription.future.setException(t);
+                }
+            });
+            subscription.future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    // Cancelled or failed fast; stop polling once nobody waits any more
+                    subscriptions.remove(subscription);
+                    if (subscriptions.isEmpty() && !future.isDone()) {
+                        future.cancel(false);
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            return subscription.future;
+        }
+
+        /**
+         * Sends the next status poll; {@link #polled} handles the response once it arrived.
+         *
+         * @throws RequestGovernor.BusyException when the request could not be sent; the execution stays due
+         */
+        void poll() throws RequestGovernor.BusyException {
+            inFlight = true;
+            ListenableFuture<ExecutionSnapshot> status;
+            try {
+                status = client.getPipelineExecutionStatusAsync(pipelineId, execId, callbacks);
+            } catch (RequestGovernor.BusyException e) {
+                inFlight = false;
+                throw e;
+            } catch (IOException e) {
+                failed(e);
+                return;
+            } catch (RuntimeException e) {
+                failed(e);
+                return;
+            }
+            Futures.addCallback(status, new FutureCallback<ExecutionSnapshot>() {
+                @Override
+                public void onSuccess(ExecutionSnapshot snapshot) {
+                    polled(snapshot);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failed(t);
+                }
+            }, callbacks);
+        }
+
+        private void polled(ExecutionSnapshot snapshot) {
+            try {
+                pollCount++;
+                consecutiveFailures = 0;
+                if (snapshot.getStatus() != null) {
+                    ExecutionJournal.get().status(execId, snapshot.getStatus().name());
+                }
+                TaskExecutionInfo failedTask = snapshot.isCompleted() ? null : snapshot.getFailedTask();
+                for (Subscription subscription : subscriptions) {
+                    if (subscription.listener != null) {
+                        try {
+                            subscription.listener.onPoll(snapshot, pollCount);
+                        } catch (RuntimeException e) {
+                            LOGGER.log(Level.FINE, "Poll listener of " + execId + " failed", e);
+                        }
+                    }
+                    if (failedTask != null && subscription.failOnTaskFailure) {
+                        subscription.future.setException(new TaskFailedException(failedTask));
+                    }
+                }
+                if (future.isCancelled()) {
+                    // Every caller failed fast, nobody waits for the rest of the execution
+                    done(null);
+                    return;
+                }
+                if (snapshot.isCompleted()) {
+                    fetchResult(snapshot.getStatus());
+                    return;
+                }
+                if (snapshot.getStatus() != null) {
+                    consecutiveUnknown = 0;
+                } else if (++consecutiveUnknown >= MAX_UNKNOWN_POLLS) {
+                    LOGGER.log(Level.WARNING, "Giving up on CodeStream execution {0} after {1} polls with a status "
+                            + "this plugin does not know", new Object[]{execId, consecutiveUnknown});
+                    done(null);
+                    future.setException(new IOException("Pipeline execution " + execId + " reported a status this "
+                            + "plugin does not know " + consecutiveUnknown + " times in a row. Please go to CodeStream "
+                            + "for more details"));
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                nextPollAt = now + strategy.nextDelayMillis(pollCount, now - startedAt, expectedRuntime);
+                inFlight = false;
+            } catch (RuntimeException e) {
+                failed(e);
+            }
+        }
+
+        /**
+         * Downloads the full execution document of a finished execution and completes the future with it.
+         */
+        private void fetchResult(final ExecutionStatus status) {
+            ListenableFuture<ReleasePipelineExecutionInfoParser> response;
+            try {
+                response = client.getPipelineExecutionResponseAsync(pipelineId, execId, callbacks);
+            } catch (IOException e) {
+                failed(e);
+                return;
+            }
+            Futures.addCallback(response, new FutureCallback<ReleasePipelineExecutionInfoParser>() {
+                @Override
+                public void onSuccess(ReleasePipelineExecutionInfoParser parser) {
+                    ExecutionInfo info = parser.getExecutionInfo();
+                    if (info != null && info.getStatus() == ExecutionStatus.COMPLETED) {
+                        PipelineRuntimeHistory.record(client.getServerUrl(), pipelineId, info.getRuntimeInMs());
+                    }
+                    // A status this plugin does not know ends with an end time; collectResult reports it
+                    done(status == null ? null : status.name());
+                    future.set(new Result(parser, pollCount));
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failed(t);
+                }
+            }, callbacks);
+        }
+
+        private void failed(Throwable t) {
+            if (t instanceof RequestGovernor.BusyException) {
+                // Not sent; still due, so it goes out again once the server has a free slot
+                inFlight = false;
+                return;
+            }
+            if (t instanceof IOException && !(t instanceof CodeStreamClient.ExecutionNotFoundException)) {
+                // The execution keeps running on the server, so ride out an outage instead of failing the build
+                IOException e = (IOException) t;
+                if (!CodeStreamClient.isPermanent(e) && ++consecutiveFailures < MAX_POLL_FAILURES) {
+                    LOGGER.log(Level.FINE, "Status poll of " + execId + " failed " + consecutiveFailures + " times in a row", e);
+                    long now = System.currentTimeMillis();
+                    nextPollAt = now + PollStrategy.EXPONENTIAL.nextDelayMillis(consecutiveFailures, now - startedAt, 0);
+                    inFlight = false;
+                    return;
+                }
+                LOGGER.log(Level.WARNING, "Giving up on CodeStream execution " + execId + " after "
+                        + consecutiveFailures + " failed polls", e);
+            }
+            // Deleted on the server, or failing for good: there is nothing left to wait for
+            done(null);
+            future.setException(t);
+        }
+
+        /**
+         * Stops polling the execution, ends its journal record, with a null status when it is no longer followed,
+         * and stops new builds from joining it. A cancelled watch already replaced by a new watch of the same
+         * execution leaves the record to that one.
+         */
+        void done(String status) {
+            if (queue.watches.remove(execId, this)) {
+                ExecutionJournal.get().finished(execId, status);
+                ExecutionCoalescer.finished(execId);
+            }
+        }
+    }
+}
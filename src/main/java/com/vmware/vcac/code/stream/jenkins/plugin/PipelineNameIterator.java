@@ -0,0 +1,163 @@
+package com.vmware.vcac.code.stream.jenkins.plugin;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelinePage;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Lazily walks the paginated release pipeline listing.
+ * <p/>
+ * Pages are only requested when the caller gets close to them. Once the first page has told how many pages
+ * there are, up to <tt>prefetch</tt> following pages are requested in parallel in the background.
+ * Names are additionally filtered client side, so servers ignoring the filter still yield correct results.
+ * <p/>
+ * The walk ends after the last reported page, and also at the first empty page, at a page repeating the one
+ * before it (a server ignoring the page parameter) and after the first page when the server reports no paging
+ * metadata, so a misbehaving server cannot keep a caller asking for more pages forever.
+ */
+public class PipelineNameIterator {
+
+    private static final int PREFETCH_THREADS = Integer.getInteger(PipelineNameIterator.class.getName() + ".threads", 4);
+
+    private static final ThreadPoolExecutor PREFETCH_EXECUTOR;
+
+    static {
+        final AtomicInteger threadCount = new AtomicInteger();
+        PREFETCH_EXECUTOR = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "CodeStream pipeline page prefetch " + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        PREFETCH_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private final CodeStreamClient client;
+    private final String filter;
+    private final int pageSize;
+    private final int prefetch;
+    private final LinkedList<Future<PipelinePage>> pending = new LinkedList<Future<PipelinePage>>();
+
+    private Iterator<String> current;
+    private List<String> previousNames;
+    private String nextName;
+    private int nextPageToRequest = 1;
+    private int totalPages = -1;
+    private boolean exhausted;
+
+    public PipelineNameIterator(CodeStreamClient client, String filter, int pageSize, int prefetch) {
+        this.client = client;
+        this.filter = StringUtils.trimToNull(filter);
+        this.pageSize = pageSize;
+        this.prefetch = Math.max(0, prefetch);
+    }
+
+    public boolean hasNext() throws IOException {
+        while (nextName == null) {
+            if (current != null && current.hasNext()) {
+                String name = current.next();
+                if (filter == null || StringUtils.containsIgnoreCase(name, filter)) {
+                    nextName = name;
+                }
+            } else if (!loadNextPage()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String name = nextName;
+        nextName = null;
+        return name;
+    }
+
+    /**
+     * Cancels any page still being prefetched.
+     */
+    public void close() {
+        for (Future<PipelinePage> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        exhausted = true;
+    }
+
+    private boolean loadNextPage() throws IOException {
+        if (exhausted) {
+            return false;
+        }
+        if (pending.isEmpty()) {
+            if (totalPages >= 0 && nextPageToRequest > totalPages) {
+                exhausted = true;
+                return false;
+            }
+            pending.add(submit(nextPageToRequest++));
+        }
+        PipelinePage page = await(pending.removeFirst());
+        List<String> names = page.getNames();
+        if (names.isEmpty() || names.equals(previousNames)) {
+            close();
+            return false;
+        }
+        previousNames = names;
+        if (totalPages < 0) {
+            if (page.getTotalPages() > 0) {
+                totalPages = page.getTotalPages();
+            } else {
+                // No paging metadata: there is no telling whether further pages exist, take this one as the last
+                totalPages = nextPageToRequest - 1;
+            }
+        }
+        while (pending.size() < prefetch && nextPageToRequest <= totalPages) {
+            pending.add(submit(nextPageToRequest++));
+        }
+        current = names.iterator();
+        return true;
+    }
+
+    private Future<PipelinePage> submit(final int page) {
+        return PREFETCH_EXECUTOR.submit(new Callable<PipelinePage>() {
+            @Override
+            public PipelinePage call() throws IOException {
+                return client.fetchPipelinePage(page, pageSize, filter);
+            }
+        });
+    }
+
+    private PipelinePage await(Future<PipelinePage> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IOException("Interrupted while listing pipelines");
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+}
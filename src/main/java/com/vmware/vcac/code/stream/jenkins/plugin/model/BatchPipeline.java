@@ -0,0 +1,43 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import static hudson.Util.fixEmptyAndTrim;
+
+/**
+ * One pipeline of a batch trigger, with its own parameter overrides.
+ */
+public class BatchPipeline extends AbstractDescribableImpl<BatchPipeline> implements Serializable {
+
+    private String pipelineName;
+    private List<PipelineParam> pipelineParams;
+
+    @DataBoundConstructor
+    public BatchPipeline(String pipelineName, List<PipelineParam> pipelineParams) {
+        this.pipelineName = fixEmptyAndTrim(pipelineName);
+        this.pipelineParams = pipelineParams;
+    }
+
+    public String getPipelineName() {
+        return pipelineName;
+    }
+
+    public List<PipelineParam> getPipelineParams() {
+        return pipelineParams;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<BatchPipeline> {
+
+        @Override
+        public String getDisplayName() {
+            return "";
+        }
+    }
+}
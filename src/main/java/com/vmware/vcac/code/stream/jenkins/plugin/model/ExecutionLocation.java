@@ -0,0 +1,49 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.model;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import hudson.Launcher;
+import hudson.remoting.Callable;
+
+/**
+ * Where the CodeStream REST calls of a build step are made.
+ * <p/>
+ * On the controller the callable runs in the Jenkins JVM, which shares connection pools, tokens and the status
+ * poller between all builds and writes to the build log without a remoting round trip per line.
+ * On the agent it is sent over the channel as before, for agents that are the only ones able to reach CodeStream.
+ */
+public enum ExecutionLocation implements Serializable {
+
+    CONTROLLER("Jenkins controller") {
+        @Override
+        public <V> V call(Launcher launcher, Callable<V, IOException> callable) throws IOException {
+            return callable.call();
+        }
+    },
+    AGENT("Build agent") {
+        @Override
+        public <V> V call(Launcher launcher, Callable<V, IOException> callable) throws IOException, InterruptedException {
+            return launcher.getChannel().call(callable);
+        }
+    };
+
+    private final String displayName;
+
+    ExecutionLocation(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public abstract <V> V call(Launcher launcher, Callable<V, IOException> callable) throws IOException, InterruptedException;
+
+    public static ExecutionLocation fromValue(String v) {
+        if (v == null || v.trim().length() == 0) {
+            return CONTROLLER;
+        }
+        return valueOf(v.trim());
+    }
+}
@@ -0,0 +1,68 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.model;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The few fields of an execution response needed while waiting for it: the pipeline status,
+ * the first failed task, if any, and a skeleton of the stages with the id, name, status and run time
+ * of their tasks. A status this plugin does not know is null; such an execution counts as completed
+ * once the server gave it an end time.
+ */
+public class ExecutionSnapshot implements Serializable {
+
+    protected ExecutionStatus status;
+    protected TaskExecutionInfo failedTask;
+    protected List<StageExecutionInfo> stages;
+    protected boolean finished;
+
+    public ExecutionSnapshot(ExecutionStatus status, TaskExecutionInfo failedTask) {
+        this(status, failedTask, Collections.<StageExecutionInfo>emptyList());
+    }
+
+    public ExecutionSnapshot(ExecutionStatus status, TaskExecutionInfo failedTask, List<StageExecutionInfo> stages) {
+        this(status, failedTask, stages, false);
+    }
+
+    /**
+     * @param finished whether the execution info carries a <tt>finishedAt</tt> time
+     */
+    public ExecutionSnapshot(ExecutionStatus status, TaskExecutionInfo failedTask, List<StageExecutionInfo> stages,
+                             boolean finished) {
+        this.status = status;
+        this.failedTask = failedTask;
+        this.stages = stages;
+        this.finished = finished;
+    }
+
+    public ExecutionStatus getStatus() {
+        return status;
+    }
+
+    public TaskExecutionInfo getFailedTask() {
+        return failedTask;
+    }
+
+    public List<StageExecutionInfo> getStages() {
+        return stages;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public boolean isCompleted() {
+        if (status == null) {
+            return finished;
+        }
+        switch (status) {
+            case COMPLETED:
+            case FAILED:
+            case CANCELED:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
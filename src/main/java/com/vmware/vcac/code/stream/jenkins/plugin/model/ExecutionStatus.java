@@ -2,6 +2,8 @@ package com.vmware.vcac.code.stream.jenkins.plugin.model;
 
 import java.io.Serializable;
 
+import org.codehaus.jackson.annotate.JsonCreator;
+
 /**
  * Created by rsaraf on 6/18/2015.
  */
@@ -21,8 +23,20 @@ public enum ExecutionStatus implements Serializable {
         return name();
     }
 
+    /**
+     * @return the status, or null for a status this plugin does not know, so a newer server does not break
+     * parsing; the execution is then treated as still running
+     */
+    @JsonCreator
     public static ExecutionStatus fromValue(String v) {
-        return valueOf(v);
+        if (v == null) {
+            return null;
+        }
+        try {
+            return valueOf(v);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
 }
\ No newline at end of file
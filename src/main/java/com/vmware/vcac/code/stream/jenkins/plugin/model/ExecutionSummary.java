@@ -0,0 +1,125 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionIndex;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * What a build keeps of a finished pipeline execution: ids, status, per-stage run times and the failed task.
+ * Persisted next to the build, the full execution response is only kept compressed.
+ */
+@ExportedBean
+public class ExecutionSummary implements Serializable {
+
+    private String pipelineName;
+    private String executionId;
+    private ExecutionStatus status;
+    private long runtimeInMs;
+    private String failedTask;
+    private String failureMessage;
+    private String responseFile;
+    private List<Stage> stages = new ArrayList<Stage>();
+
+    public static ExecutionSummary of(ReleasePipelineExecutionInfo execution, ExecutionIndex index) {
+        ExecutionSummary summary = new ExecutionSummary();
+        summary.executionId = execution.getId();
+        ExecutionInfo info = execution.getExecutionInfo();
+        if (info != null) {
+            summary.status = info.getStatus();
+            summary.runtimeInMs = info.getRuntimeInMs();
+        }
+        List<StageExecutionInfo> stages = execution.getStages();
+        for (int i = 0; stages != null && i < stages.size(); i++) {
+            StageExecutionInfo stage = stages.get(i);
+            summary.stages.add(new Stage(stage.getName(), stage.getStatus(), index.getStageRuntime(i)));
+        }
+        TaskExecutionInfo failedTask = index.getFirstFailedTask();
+        if (failedTask != null) {
+            summary.failedTask = failedTask.getTask() != null ? failedTask.getTask().getName() : failedTask.getId();
+            summary.failureMessage = failedTask.getMessages();
+        }
+        return summary;
+    }
+
+    @Exported
+    public String getPipelineName() {
+        return pipelineName;
+    }
+
+    public void setPipelineName(String pipelineName) {
+        this.pipelineName = pipelineName;
+    }
+
+    @Exported
+    public String getExecutionId() {
+        return executionId;
+    }
+
+    @Exported
+    public ExecutionStatus getStatus() {
+        return status;
+    }
+
+    @Exported
+    public long getRuntimeInMs() {
+        return runtimeInMs;
+    }
+
+    @Exported
+    public String getFailedTask() {
+        return failedTask;
+    }
+
+    @Exported
+    public String getFailureMessage() {
+        return failureMessage;
+    }
+
+    /**
+     * @return absolute path of the compressed execution response
+     */
+    public String getResponseFile() {
+        return responseFile;
+    }
+
+    public void setResponseFile(String responseFile) {
+        this.responseFile = responseFile;
+    }
+
+    @Exported
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static class Stage implements Serializable {
+        private final String name;
+        private final ExecutionStatus status;
+        private final long runtimeInMs;
+
+        public Stage(String name, ExecutionStatus status, long runtimeInMs) {
+            this.name = name;
+            this.status = status;
+            this.runtimeInMs = runtimeInMs;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public ExecutionStatus getStatus() {
+            return status;
+        }
+
+        @Exported
+        public long getRuntimeInMs() {
+            return runtimeInMs;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One page of the release pipeline listing, reduced to the pipeline names.
+ */
+public class PipelinePage implements Serializable {
+
+    protected List<String> names;
+    protected int totalPages;
+
+    public PipelinePage(List<String> names, int totalPages) {
+        this.names = names;
+        this.totalPages = totalPages;
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @return the number of pages reported by the server, or 0 when the response carried no paging metadata
+     */
+    public int getTotalPages() {
+        return totalPages;
+    }
+}
@@ -5,6 +5,10 @@ import java.io.Serializable;
 import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.export.ExportedBean;
 
@@ -12,15 +16,18 @@ import org.kohsuke.stapler.export.ExportedBean;
  * Created by rsaraf on 3/23/2015.
  */
 @ExportedBean
+@JsonIgnoreProperties(value = {"descriptor"}, ignoreUnknown = true)
 public class PipelineParam extends AbstractDescribableImpl<PipelineParam> implements Serializable, Cloneable {
     private String name;
 
     private String type="STRING";
     private String description="";
     private String value;
+    private boolean required;
 
     @DataBoundConstructor
-    public PipelineParam(String value, String name) {
+    @JsonCreator
+    public PipelineParam(@JsonProperty("value") String value, @JsonProperty("name") String name) {
         this.value = value;
         this.name = name;
     }
@@ -57,6 +64,19 @@ public class PipelineParam extends AbstractDescribableImpl<PipelineParam> implem
         this.value = value;
     }
 
+    /**
+     * @return whether the pipeline definition requires a value; read from CodeStream, never sent back to it
+     */
+    @JsonIgnore
+    public boolean isRequired() {
+        return required;
+    }
+
+    @JsonProperty("required")
+    public void setRequired(boolean required) {
+        this.required = required;
+    }
+
     @Extension
     public static class DescriptorImpl extends Descriptor<PipelineParam> {
 
@@ -17,6 +17,9 @@ public class PluginParam implements Serializable {
     private String credentialsId;
     private boolean waitExec;
     private List<PipelineParam> pipelineParams;
+    private PollStrategy pollStrategy = PollStrategy.FIXED;
+    private int coalesceWindow;
+    private TaskFailureMode taskFailureMode = TaskFailureMode.WAIT;
 
     public PluginParam(String serverUrl, String tenant, String pipelineName, String credentialsId, boolean waitExec, List<PipelineParam> pipelineParams) {
         this.serverUrl = serverUrl;
@@ -52,6 +55,33 @@ public class PluginParam implements Serializable {
         return waitExec;
     }
 
+    public PollStrategy getPollStrategy() {
+        return pollStrategy;
+    }
+
+    public void setPollStrategy(PollStrategy pollStrategy) {
+        this.pollStrategy = pollStrategy == null ? PollStrategy.FIXED : pollStrategy;
+    }
+
+    /**
+     * @return seconds during which identical triggers share one execution, 0 when every trigger executes
+     */
+    public int getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    public void setCoalesceWindow(int coalesceWindow) {
+        this.coalesceWindow = Math.max(0, coalesceWindow);
+    }
+
+    public TaskFailureMode getTaskFailureMode() {
+        return taskFailureMode;
+    }
+
+    public void setTaskFailureMode(TaskFailureMode taskFailureMode) {
+        this.taskFailureMode = taskFailureMode == null ? TaskFailureMode.WAIT : taskFailureMode;
+    }
+
 
     public Boolean validate() throws IOException {
         if (StringUtils.isBlank(this.getServerUrl())) {
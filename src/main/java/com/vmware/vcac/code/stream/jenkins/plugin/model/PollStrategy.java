@@ -0,0 +1,81 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.model;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * How long to wait before the next execution status poll.
+ */
+public enum PollStrategy implements Serializable {
+
+    FIXED("Fixed interval") {
+        @Override
+        public long nextDelayMillis(int pollCount, long elapsedMs, long expectedRuntimeMs) {
+            return FIXED_INTERVAL_MS;
+        }
+    },
+    EXPONENTIAL("Exponential backoff") {
+        @Override
+        public long nextDelayMillis(int pollCount, long elapsedMs, long expectedRuntimeMs) {
+            return exponential(pollCount);
+        }
+    },
+    JITTERED("Exponential backoff with jitter") {
+        @Override
+        public long nextDelayMillis(int pollCount, long elapsedMs, long expectedRuntimeMs) {
+            long delay = exponential(pollCount);
+            long half = delay / 2;
+            return half + (long) (RANDOM.nextDouble() * (delay - half));
+        }
+    },
+    ETA("Based on previous run time") {
+        @Override
+        public long nextDelayMillis(int pollCount, long elapsedMs, long expectedRuntimeMs) {
+            if (expectedRuntimeMs <= 0) {
+                return JITTERED.nextDelayMillis(pollCount, elapsedMs, expectedRuntimeMs);
+            }
+            long remaining = expectedRuntimeMs - elapsedMs;
+            if (remaining > 0) {
+                // Halve the distance to the expected finish, polling quickly once it is close
+                return Math.max(MIN_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, remaining / 2));
+            }
+            // Overdue: back off again from the start, counting only the polls past the ETA
+            int overduePolls = (int) Math.min(Integer.MAX_VALUE, -remaining / MIN_INTERVAL_MS + 1);
+            return exponential(overduePolls);
+        }
+    };
+
+    static final long FIXED_INTERVAL_MS = 10 * 1000L;
+    static final long MIN_INTERVAL_MS = 2 * 1000L;
+    static final long MAX_INTERVAL_MS = 60 * 1000L;
+    private static final Random RANDOM = new Random();
+
+    private final String displayName;
+
+    PollStrategy(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @param pollCount         number of polls done so far, at least 1
+     * @param elapsedMs         time since the execution started
+     * @param expectedRuntimeMs run time of previous executions of the pipeline, or 0 when unknown
+     */
+    public abstract long nextDelayMillis(int pollCount, long elapsedMs, long expectedRuntimeMs);
+
+    public static PollStrategy fromValue(String v) {
+        if (v == null || v.trim().length() == 0) {
+            return FIXED;
+        }
+        return valueOf(v.trim());
+    }
+
+    static long exponential(int pollCount) {
+        int shift = Math.min(Math.max(pollCount - 1, 0), 16);
+        return Math.min(MAX_INTERVAL_MS, MIN_INTERVAL_MS << shift);
+    }
+}
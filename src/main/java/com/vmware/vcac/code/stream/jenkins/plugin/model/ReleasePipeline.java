@@ -0,0 +1,50 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+/**
+ * Release pipeline definition as returned by the release-pipelines api.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ReleasePipeline implements Serializable {
+
+    protected String id;
+    protected String name;
+    protected String status;
+    protected List<PipelineParam> pipelineParams;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public List<PipelineParam> getPipelineParams() {
+        return pipelineParams;
+    }
+
+    public void setPipelineParams(List<PipelineParam> pipelineParams) {
+        this.pipelineParams = pipelineParams;
+    }
+}
@@ -0,0 +1,37 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.model;
+
+import java.io.Serializable;
+
+/**
+ * What a waiting build does when a task of the execution fails while other stages are still running.
+ */
+public enum TaskFailureMode implements Serializable {
+
+    /** Keep waiting until the whole pipeline is finished. */
+    WAIT("Wait for the pipeline to finish"),
+    /** Fail the build at once and leave the execution running in CodeStream. */
+    DETACH("Fail the build, leave the execution running"),
+    /** Fail the build at once and cancel the execution. */
+    CANCEL("Fail the build and cancel the execution");
+
+    private final String displayName;
+
+    TaskFailureMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public boolean isFailFast() {
+        return this != WAIT;
+    }
+
+    public static TaskFailureMode fromValue(String v) {
+        if (v == null || v.trim().length() == 0) {
+            return WAIT;
+        }
+        return valueOf(v.trim());
+    }
+}
@@ -0,0 +1,101 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.ssl.SSLContextBuilder;
+
+/**
+ * {@link HttpTransport} whose {@link #executeAsync} runs on the non-blocking HttpAsyncClient.
+ * <p/>
+ * All asynchronous requests to a server are multiplexed by an I/O reactor with <tt>ioThreads</tt> dispatcher
+ * threads, and the response future is completed from the dispatcher thread that read the response, so no thread
+ * waits for a slow server. Responses are buffered by the reactor before they are handed over, which is fine for
+ * the documents CodeStream returns. {@link #execute} is for callers that wait anyway, such as a build triggering
+ * a pipeline, and goes over the pooled blocking client of the server instead of parking a thread on a future.
+ */
+final class AsyncHttpTransport implements HttpTransport {
+
+    private static final String PREFIX = AsyncHttpTransport.class.getName() + ".";
+    static final int IO_THREADS = Integer.getInteger(PREFIX + "ioThreads", 2);
+
+    private final CloseableHttpClient blockingClient;
+    private final CloseableHttpAsyncClient httpClient;
+
+    AsyncHttpTransport(CloseableHttpClient blockingClient, boolean trustSelfSigned) throws IOException {
+        this.blockingClient = blockingClient;
+        SSLContextBuilder builder = new SSLContextBuilder();
+        try {
+            if (trustSelfSigned) {
+                builder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
+            }
+            httpClient = HttpAsyncClients.custom()
+                    .setSSLContext(builder.build())
+                    .setMaxConnTotal(HttpClientPool.MAX_TOTAL)
+                    .setMaxConnPerRoute(HttpClientPool.MAX_PER_ROUTE)
+                    .setKeepAliveStrategy(new HttpClientPool.CappedKeepAliveStrategy())
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectTimeout(HttpClientPool.CONNECT_TIMEOUT_MS)
+                            .setSocketTimeout(HttpClientPool.SOCKET_TIMEOUT_MS)
+                            .setConnectionRequestTimeout(HttpClientPool.CONNECTION_REQUEST_TIMEOUT_MS)
+                            .build())
+                    .setDefaultIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(IO_THREADS).build())
+                    .build();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to initialize SSL context", e);
+        }
+        httpClient.start();
+    }
+
+    @Override
+    public HttpResponse execute(HttpUriRequest request) throws IOException {
+        return blockingClient.execute(request);
+    }
+
+    @Override
+    public ListenableFuture<HttpResponse> executeAsync(HttpUriRequest request) {
+        final SettableFuture<HttpResponse> result = SettableFuture.create();
+        final Future<HttpResponse> sent = httpClient.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                result.set(response);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.setException(e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled()) {
+                    sent.cancel(true);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
+    }
+
+    void close() throws IOException {
+        httpClient.close();
+    }
+}
@@ -0,0 +1,164 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-server circuit breaker shared by every build of this JVM.
+ * <p/>
+ * After <tt>failureThreshold</tt> consecutive transient failures the circuit opens and requests to the server
+ * fail at once for <tt>openMs</tt>, instead of each build spending its retries on an appliance that is down.
+ * Then a single trial request is let through: its success closes the circuit, its failure opens it again.
+ * Closed breakers of servers that had no request for <tt>idleMs</tt> are dropped.
+ */
+public final class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private static final String PREFIX = CircuitBreaker.class.getName() + ".";
+    static final int FAILURE_THRESHOLD = Integer.getInteger(PREFIX + "failureThreshold", 5);
+    static final long OPEN_MS = Long.getLong(PREFIX + "openMs", 30 * 1000L);
+    static final long IDLE_MS = Long.getLong(PREFIX + "idleMs", 10 * 60 * 1000L);
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CircuitBreaker>();
+    private static final AtomicLong PURGED_AT = new AtomicLong(System.currentTimeMillis());
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String serverUrl;
+    private final int failureThreshold;
+    private final long openMs;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean trialInFlight;
+    private long timesOpened;
+    private long lastUsed = System.currentTimeMillis();
+
+    CircuitBreaker(String serverUrl, int failureThreshold, long openMs) {
+        this.serverUrl = serverUrl;
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+    }
+
+    public static CircuitBreaker forServer(String serverUrl) {
+        purgeIdle(System.currentTimeMillis());
+        CircuitBreaker breaker = BREAKERS.get(serverUrl);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(serverUrl, FAILURE_THRESHOLD, OPEN_MS);
+            breaker = BREAKERS.putIfAbsent(serverUrl, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    public static List<CircuitBreaker> all() {
+        return new ArrayList<CircuitBreaker>(BREAKERS.values());
+    }
+
+    /**
+     * Drops the closed breakers idle for longer than {@link #IDLE_MS}, at most once a minute.
+     */
+    static void purgeIdle(long now) {
+        long purgedAt = PURGED_AT.get();
+        if (now - purgedAt < Math.min(IDLE_MS, 60 * 1000L) || !PURGED_AT.compareAndSet(purgedAt, now)) {
+            return;
+        }
+        for (CircuitBreaker breaker : BREAKERS.values()) {
+            if (breaker.isIdle(now)) {
+                BREAKERS.remove(breaker.serverUrl, breaker);
+            }
+        }
+    }
+
+    private synchronized boolean isIdle(long now) {
+        return state == State.CLOSED && consecutiveFailures == 0 && now - lastUsed >= IDLE_MS;
+    }
+
+    /**
+     * Fails fast with {@link OpenException} while the circuit is open.
+     */
+    public synchronized void beforeRequest() throws OpenException {
+        long now = System.currentTimeMillis();
+        lastUsed = now;
+        if (state == State.CLOSED) {
+            return;
+        }
+        if (state == State.OPEN && now >= openUntil) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return;
+        }
+        throw new OpenException("CodeStream server " + serverUrl + " is unavailable, not retrying for "
+                + Math.max(0, openUntil - now) / 1000 + " s after " + consecutiveFailures + " consecutive failures");
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.log(Level.INFO, "CodeStream server {0} is reachable again", serverUrl);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                timesOpened++;
+                LOGGER.log(Level.WARNING, "CodeStream server {0} failed {1} times in a row, pausing requests for {2} ms",
+                        new Object[]{serverUrl, consecutiveFailures, openMs});
+            }
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + openMs;
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * Ends a request that says nothing about the health of the server, such as one that failed with a permanent
+     * error or before it was sent. A trial request ending this way lets the next request be the trial.
+     */
+    public synchronized void onAbandoned() {
+        trialInFlight = false;
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long getTimesOpened() {
+        return timesOpened;
+    }
+
+    /**
+     * Thrown instead of sending a request while the circuit is open; never retried.
+     */
+    public static final class OpenException extends IOException {
+        OpenException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Latency histograms and counters of the calls made to CodeStream, published as JMX MBeans.
+ * <p/>
+ * There is one {@link EndpointStatsMBean} per server, tenant and {@link Endpoint}, named
+ * <tt>com.vmware.vcac.codestream:type=Endpoint,server=..,tenant=..,endpoint=..</tt>, and one
+ * <tt>type=Gauges</tt> bean with the executions being waited for and the connection pool usage.
+ * Recording is a few atomic increments, so the metrics are always on. The beans of endpoints not called for
+ * <tt>idleMs</tt> are unregistered, so servers only ever tried out in a configuration form do not pile up.
+ */
+public final class CodeStreamMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(CodeStreamMetrics.class.getName());
+
+    static final String DOMAIN = "com.vmware.vcac.codestream";
+    static final long IDLE_MS = Long.getLong(CodeStreamMetrics.class.getName() + ".idleMs", 10 * 60 * 1000L);
+
+    /**
+     * Kinds of calls, each with the priority it gets from the {@link RequestGovernor}.
+     */
+    public enum Endpoint {
+        TOKEN(RequestGovernor.Priority.TOKEN),
+        LIST_PIPELINES(RequestGovernor.Priority.LOOKUP),
+        FETCH_PIPELINE(RequestGovernor.Priority.LOOKUP),
+        EXECUTE(RequestGovernor.Priority.EXECUTE),
+        CANCEL(RequestGovernor.Priority.EXECUTE),
+        STATUS(RequestGovernor.Priority.POLL),
+        RESULT(RequestGovernor.Priority.POLL),
+        OTHER(RequestGovernor.Priority.LOOKUP);
+
+        private final RequestGovernor.Priority priority;
+
+        Endpoint(RequestGovernor.Priority priority) {
+            this.priority = priority;
+        }
+
+        public RequestGovernor.Priority getPriority() {
+            return priority;
+        }
+    }
+
+    private static final ConcurrentMap<String, EndpointStats> STATS = new ConcurrentHashMap<String, EndpointStats>();
+    private static final AtomicLong PURGED_AT = new AtomicLong(System.currentTimeMillis());
+
+    private CodeStreamMetrics() {
+    }
+
+    public static EndpointStats get(String serverUrl, String tenant, Endpoint endpoint) {
+        purgeIdle(System.currentTimeMillis());
+        String key = serverUrl + "|" + tenant + "|" + endpoint;
+        EndpointStats stats = STATS.get(key);
+        if (stats == null) {
+            EndpointStats created = new EndpointStats(new ObjectNameBuilder().add("type", "Endpoint").add("server", serverUrl)
+                    .add("tenant", tenant).add("endpoint", endpoint.name()).build());
+            stats = STATS.putIfAbsent(key, created);
+            if (stats == null) {
+                stats = created;
+                register(created.name, created, EndpointStatsMBean.class);
+            }
+        }
+        stats.lastUsed = System.currentTimeMillis();
+        return stats;
+    }
+
+    /**
+     * Unregisters the endpoints not called for {@link #IDLE_MS}, at most once a minute.
+     */
+    static void purgeIdle(long now) {
+        long purgedAt = PURGED_AT.get();
+        if (now - purgedAt < Math.min(IDLE_MS, 60 * 1000L) || !PURGED_AT.compareAndSet(purgedAt, now)) {
+            return;
+        }
+        for (Map.Entry<String, EndpointStats> entry : STATS.entrySet()) {
+            EndpointStats stats = entry.getValue();
+            if (now - stats.lastUsed >= IDLE_MS && STATS.remove(entry.getKey(), stats)) {
+                unregister(stats.name);
+            }
+        }
+    }
+
+    /**
+     * Publishes the gauges; called once by the execution poller, which owns the in-flight executions.
+     */
+    public static void registerGauges(GaugesMBean gauges) {
+        register(new ObjectNameBuilder().add("type", "Gauges").build(), gauges, GaugesMBean.class);
+    }
+
+    private static <T> void register(ObjectName name, T bean, Class<T> type) {
+        if (name == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new StandardMBean(bean, type), name);
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.FINE, "Unable to register " + name, e);
+        }
+    }
+
+    private static void unregister(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.FINE, "Unable to unregister " + name, e);
+        }
+    }
+
+    private static final class ObjectNameBuilder {
+        private final StringBuilder name = new StringBuilder(DOMAIN).append(':');
+        private boolean first = true;
+
+        ObjectNameBuilder add(String key, String value) {
+            if (!first) {
+                name.append(',');
+            }
+            first = false;
+            name.append(key).append('=').append(ObjectName.quote(String.valueOf(value)));
+            return this;
+        }
+
+        ObjectName build() {
+            try {
+                return new ObjectName(name.toString());
+            } catch (JMException e) {
+                LOGGER.log(Level.FINE, "Invalid MBean name " + name, e);
+                return null;
+            }
+        }
+    }
+
+    public interface EndpointStatsMBean {
+        long getRequests();
+
+        long getErrors();
+
+        long getRetries();
+
+        long getBytesRead();
+
+        long getCalls();
+
+        double getMeanMillis();
+
+        long getP50Millis();
+
+        long getP95Millis();
+
+        long getP99Millis();
+
+        long getMaxMillis();
+    }
+
+    /**
+     * Counters and call latency of one endpoint. A call covers all attempts of a request, including retries.
+     */
+    public static final class EndpointStats implements EndpointStatsMBean {
+        private final ObjectName name;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final Histogram latency = new Histogram();
+
+        EndpointStats(ObjectName name) {
+            this.name = name;
+        }
+
+        public void request() {
+            requests.incrementAndGet();
+        }
+
+        public void error() {
+            errors.incrementAndGet();
+        }
+
+        public void retry() {
+            retries.incrementAndGet();
+        }
+
+        public void bytesRead(long bytes) {
+            if (bytes > 0) {
+                bytesRead.addAndGet(bytes);
+            }
+        }
+
+        public void call(long millis) {
+            latency.record(millis);
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public long getRetries() {
+            return retries.get();
+        }
+
+        /**
+         * @return bytes of response bodies read, chunked or not
+         */
+        public long getBytesRead() {
+            return bytesRead.get();
+        }
+
+        public long getCalls() {
+            return latency.getCount();
+        }
+
+        public double getMeanMillis() {
+            return latency.getMean();
+        }
+
+        public long getP50Millis() {
+            return latency.getPercentile(50);
+        }
+
+        public long getP95Millis() {
+            return latency.getPercentile(95);
+        }
+
+        public long getP99Millis() {
+            return latency.getPercentile(99);
+        }
+
+        public long getMaxMillis() {
+            return latency.getMax();
+        }
+    }
+
+    /**
+     * Log-linear histogram in the spirit of HdrHistogram: exact below 16 ms, then 8 buckets per power of two,
+     * i.e. at most 12.5% relative error, up to about 2^40 ms. Recording takes a few atomic operations.
+     */
+    static final class Histogram {
+        private static final int LINEAR = 16;
+        private static final int SUB_BUCKETS = 8;
+        private static final int MAGNITUDES = 36;
+
+        private final AtomicLongArray counts = new AtomicLongArray(LINEAR + MAGNITUDES * SUB_BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(index(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // retry
+            }
+        }
+
+        static int index(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (magnitude - 3)) & (SUB_BUCKETS - 1);
+            int index = LINEAR + (magnitude - 4) * SUB_BUCKETS + sub;
+            return Math.min(index, LINEAR + MAGNITUDES * SUB_BUCKETS - 1);
+        }
+
+        /**
+         * @return the upper bound of the bucket at the given index
+         */
+        static long upperBound(int index) {
+            if (index < LINEAR) {
+                return index;
+            }
+            int magnitude = (index - LINEAR) / SUB_BUCKETS + 4;
+            int sub = (index - LINEAR) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - 3)) - 1;
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        double getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : (double) sum.get() / n;
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        long getPercentile(double percentile) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100d * n);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+    public interface GaugesMBean {
+        int getInFlightExecutions();
+
+        int getLeasedConnections();
+
+        int getAvailableConnections();
+
+        long getConnectionWaits();
+    }
+}
@@ -14,23 +14,32 @@ import static hudson.Util.fixEmptyAndTrim;
 
 /**
  * Created by rsaraf on 4/22/2015.
+ * <p/>
+ * Values without a <tt>$</tt> are only trimmed. The build environment is computed the first time a value
+ * actually references a variable, and values are expanded from their cached {@link VariableTemplate}.
  */
 public class EnvVariableResolver {
 
+    private final AbstractBuild<?, ?> build;
+    private final BuildListener listener;
     private EnvVars environment;
 
 
-    public EnvVariableResolver(AbstractBuild<?, ?> build, BuildListener listener) throws IOException, InterruptedException {
-        environment = build.getEnvironment(listener);
-        environment.overrideAll(build.getBuildVariables());
+    public EnvVariableResolver(AbstractBuild<?, ?> build, BuildListener listener) {
+        this.build = build;
+        this.listener = listener;
     }
 
-    public String replaceBuildParamWithValue(String paramValue) {
-        return fixEmptyAndTrim(environment.expand(paramValue));
+    public String replaceBuildParamWithValue(String paramValue) throws IOException, InterruptedException {
+        if (paramValue == null || paramValue.indexOf('$') < 0) {
+            return fixEmptyAndTrim(paramValue);
+        }
+        VariableTemplate template = VariableTemplate.compile(paramValue);
+        return template.isLiteral() ? template.expand(null) : template.expand(getEnvironment());
     }
 
-    public List<PipelineParam> replaceBuildParamWithValue(List<PipelineParam> pipelineParams) {
-        List<PipelineParam> temp = new ArrayList<PipelineParam>();
+    public List<PipelineParam> replaceBuildParamWithValue(List<PipelineParam> pipelineParams) throws IOException, InterruptedException {
+        List<PipelineParam> temp = new ArrayList<PipelineParam>(pipelineParams == null ? 0 : pipelineParams.size());
         if (pipelineParams != null) {
             for (PipelineParam param : pipelineParams) {
                 try {
@@ -39,14 +48,18 @@ public class EnvVariableResolver {
                     cloned.setValue(replaceBuildParamWithValue(cloned.getValue()));
                     temp.add(cloned);
                 } catch (CloneNotSupportedException e) {
-                    new IOException("Not able to clone pipeline param");
+                    throw new IOException("Not able to clone pipeline param", e);
                 }
             }
         }
         return temp;
     }
 
-    public EnvVars getEnvironment() {
+    public EnvVars getEnvironment() throws IOException, InterruptedException {
+        if (environment == null) {
+            environment = build.getEnvironment(listener);
+            environment.overrideAll(build.getBuildVariables());
+        }
         return environment;
     }
 }
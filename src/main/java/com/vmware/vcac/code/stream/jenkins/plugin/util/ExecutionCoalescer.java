@@ -0,0 +1,182 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelineParam;
+import hudson.Util;
+
+/**
+ * Lets builds that trigger the same pipeline with the same parameters within a short window share one execution.
+ * <p/>
+ * Executions are keyed by server, tenant, credentials, pipeline id and a hash of the parameters sorted by name.
+ * The first build to trigger within the window creates the execution, builds arriving while it is being
+ * triggered wait for its id and later ones get it at once. If triggering fails, the next waiting build triggers
+ * instead. An execution that {@link #finished(String) finished} is not joined any more, even within its window.
+ * The registry is per JVM, so only builds making their REST calls in the same JVM are coalesced.
+ */
+public final class ExecutionCoalescer {
+
+    private static final Logger LOGGER = Logger.getLogger(ExecutionCoalescer.class.getName());
+
+    private static final ConcurrentMap<String, Pending> EXECUTIONS = new ConcurrentHashMap<String, Pending>();
+
+    /**
+     * Triggers a new execution.
+     */
+    public interface Trigger {
+        /**
+         * @return the execution id
+         */
+        String trigger() throws IOException;
+    }
+
+    private ExecutionCoalescer() {
+    }
+
+    /**
+     * @param windowMs how long after an execution was triggered builds still attach to it
+     * @return the id of the new or shared execution
+     */
+    public static String coalesce(String key, long windowMs, Trigger trigger) throws IOException, InterruptedException {
+        purgeExpired();
+        while (true) {
+            Pending pending = EXECUTIONS.get(key);
+            if (pending == null || pending.isExpired(System.currentTimeMillis())) {
+                Pending created = new Pending(windowMs);
+                if (pending == null ? EXECUTIONS.putIfAbsent(key, created) != null : !EXECUTIONS.replace(key, pending, created)) {
+                    // Another build got there first
+                    continue;
+                }
+                try {
+                    String execId = trigger.trigger();
+                    created.start(execId);
+                    return execId;
+                } catch (IOException e) {
+                    EXECUTIONS.remove(key, created);
+                    created.execId.setException(e);
+                    throw e;
+                } catch (RuntimeException e) {
+                    EXECUTIONS.remove(key, created);
+                    created.execId.setException(e);
+                    throw e;
+                }
+            }
+            try {
+                String execId = pending.execId.get();
+                LOGGER.log(Level.FINE, "Coalesced trigger {0} into execution {1}", new Object[]{key, execId});
+                return execId;
+            } catch (ExecutionException e) {
+                // The build that was triggering failed; the entry is gone, so trigger anew
+                LOGGER.log(Level.FINE, "Coalesced trigger of " + key + " failed, retrying", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Stops builds from joining an execution that is over.
+     */
+    public static void finished(String execId) {
+        if (execId == null) {
+            return;
+        }
+        for (Map.Entry<String, Pending> entry : EXECUTIONS.entrySet()) {
+            if (execId.equals(entry.getValue().getExecId())) {
+                EXECUTIONS.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the coalescing key of a trigger; parameter values are only kept hashed
+     */
+    public static String key(String serverUrl, String tenant, String credentialsId, String pipelineId,
+                             List<PipelineParam> params) {
+        List<PipelineParam> sorted = params == null ? new ArrayList<PipelineParam>() : new ArrayList<PipelineParam>(params);
+        Collections.sort(sorted, new Comparator<PipelineParam>() {
+            @Override
+            public int compare(PipelineParam a, PipelineParam b) {
+                return nullToEmpty(a.getName()).compareTo(nullToEmpty(b.getName()));
+            }
+        });
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (PipelineParam param : sorted) {
+                digest.update(nullToEmpty(param.getName()).getBytes("UTF-8"));
+                digest.update((byte) 0);
+                digest.update(nullToEmpty(param.getValue()).getBytes("UTF-8"));
+                digest.update((byte) 0);
+            }
+            return serverUrl + "|" + tenant + "|" + credentialsId + "|" + pipelineId + "|" + Util.toHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Pending> entry : EXECUTIONS.entrySet()) {
+            if (entry.getValue().isExpired(now)) {
+                EXECUTIONS.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static final class Pending {
+        private final SettableFuture<String> execId = SettableFuture.create();
+        private final long windowMs;
+        private volatile long expiresAt = Long.MAX_VALUE;
+
+        Pending(long windowMs) {
+            this.windowMs = windowMs;
+        }
+
+        /**
+         * The window starts once the execution exists; until then the entry does not expire.
+         */
+        void start(String id) {
+            expiresAt = System.currentTimeMillis() + windowMs;
+            execId.set(id);
+        }
+
+        /**
+         * @return the execution id, or null while it is being triggered
+         */
+        String getExecId() {
+            if (!execId.isDone()) {
+                return null;
+            }
+            try {
+                return execId.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionInfo;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionStatus;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.StageExecutionInfo;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskExecutionInfo;
+
+/**
+ * Lookup tables over the stages and tasks of an execution, built in a single pass.
+ * <p/>
+ * Tasks by id and by name (first one wins for duplicate names), task counts per status, the first and last
+ * failed task in pipeline order and the summed task run time of every stage.
+ */
+public final class ExecutionIndex {
+
+    private static final ExecutionStatus[] STATUSES = ExecutionStatus.values();
+
+    private final Map<String, TaskExecutionInfo> tasksById;
+    private final Map<String, TaskExecutionInfo> tasksByName;
+    private final int[] statusCounts = new int[STATUSES.length];
+    private final long[] stageRuntimes;
+    private int taskCount;
+    private TaskExecutionInfo firstFailedTask;
+    private TaskExecutionInfo lastFailedTask;
+
+    public ExecutionIndex(List<StageExecutionInfo> stages) {
+        if (stages == null) {
+            stages = Collections.emptyList();
+        }
+        int capacity = 0;
+        for (int i = 0; i < stages.size(); i++) {
+            List<TaskExecutionInfo> tasks = stages.get(i).getTasks();
+            capacity += tasks == null ? 0 : tasks.size();
+        }
+        tasksById = new HashMap<String, TaskExecutionInfo>(capacity * 4 / 3 + 1);
+        tasksByName = new HashMap<String, TaskExecutionInfo>(capacity * 4 / 3 + 1);
+        stageRuntimes = new long[stages.size()];
+        for (int i = 0; i < stages.size(); i++) {
+            List<TaskExecutionInfo> tasks = stages.get(i).getTasks();
+            for (int j = 0; tasks != null && j < tasks.size(); j++) {
+                index(i, tasks.get(j));
+            }
+        }
+    }
+
+    private void index(int stage, TaskExecutionInfo task) {
+        taskCount++;
+        if (task.getId() != null) {
+            tasksById.put(task.getId(), task);
+        }
+        if (task.getTask() != null && task.getTask().getName() != null && !tasksByName.containsKey(task.getTask().getName())) {
+            tasksByName.put(task.getTask().getName(), task);
+        }
+        ExecutionInfo info = task.getExecutionInfo();
+        if (info == null) {
+            return;
+        }
+        stageRuntimes[stage] += info.getRuntimeInMs();
+        ExecutionStatus status = info.getStatus();
+        if (status != null) {
+            statusCounts[status.ordinal()]++;
+            if (status == ExecutionStatus.FAILED) {
+                if (firstFailedTask == null) {
+                    firstFailedTask = task;
+                }
+                lastFailedTask = task;
+            }
+        }
+    }
+
+    public TaskExecutionInfo getTaskById(String id) {
+        return tasksById.get(id);
+    }
+
+    public TaskExecutionInfo getTaskByName(String name) {
+        return tasksByName.get(name);
+    }
+
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    public int getTaskCount(ExecutionStatus status) {
+        return statusCounts[status.ordinal()];
+    }
+
+    public TaskExecutionInfo getFirstFailedTask() {
+        return firstFailedTask;
+    }
+
+    public TaskExecutionInfo getLastFailedTask() {
+        return lastFailedTask;
+    }
+
+    /**
+     * @return the summed run time of the tasks of the stage at the given position
+     */
+    public long getStageRuntime(int stage) {
+        return stageRuntimes[stage];
+    }
+}
@@ -0,0 +1,457 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+import org.codehaus.jackson.JsonNode;
+
+/**
+ * Append-only journal of the pipeline executions this controller is waiting for.
+ * <p/>
+ * A record is written when an execution is triggered, whenever its polled status changes and when it is
+ * finished. Start records are forced to disk before the caller starts waiting, so a crash can never lose an
+ * execution id; status and end records are forced in batches every <tt>flushMs</tt>. After a restart the
+ * still pending executions are replayed from the journal and attached to again instead of being triggered a
+ * second time. The file is compacted to the pending records when it is opened and once it has grown by
+ * <tt>compactAfter</tt> records. A journal that cannot be read when it is opened is never compacted, since that
+ * would drop the records it still holds: new records are appended to it until the next start.
+ * <p/>
+ * All journals of the JVM are flushed by one daemon thread. The controller's journal is closed, and so
+ * flushed a last time, from a shutdown hook.
+ * <p/>
+ * Only the credentials id is journaled, never a password. Off the controller the journal is disabled.
+ */
+public final class ExecutionJournal {
+
+    private static final Logger LOGGER = Logger.getLogger(ExecutionJournal.class.getName());
+
+    private static final String PREFIX = ExecutionJournal.class.getName() + ".";
+    static final long FLUSH_MS = Long.getLong(PREFIX + "flushMs", 1000L);
+    static final int COMPACT_AFTER = Integer.getInteger(PREFIX + "compactAfter", 10000);
+
+    public static final String FILE_NAME = "codestream-executions.journal";
+
+    private static final String OP_START = "start";
+    private static final String OP_STATUS = "status";
+    private static final String OP_END = "end";
+
+    private static ExecutionJournal instance;
+    private static ScheduledExecutorService flusher;
+
+    private final File file;
+    private final Map<String, Record> pending = new LinkedHashMap<String, Record>();
+    private FileChannel channel;
+    private int appended;
+    private boolean dirty;
+    private boolean unreadable;
+    private ScheduledFuture<?> flushing;
+
+    private ExecutionJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the journal of this controller, opened on first use; a disabled journal on agents
+     */
+    public static synchronized ExecutionJournal get() {
+        if (instance == null) {
+            Jenkins jenkins = Jenkins.getInstance();
+            final ExecutionJournal journal = open(jenkins == null ? null : new File(jenkins.getRootDir(), FILE_NAME));
+            if (journal.isEnabled()) {
+                Runtime.getRuntime().addShutdownHook(new Thread("CodeStream execution journal shutdown") {
+                    @Override
+                    public void run() {
+                        journal.close();
+                    }
+                });
+            }
+            instance = journal;
+        }
+        return instance;
+    }
+
+    /**
+     * Replays the journal in the given file and starts flushing it.
+     *
+     * @param file the journal file, or null for a disabled journal
+     */
+    static ExecutionJournal open(File file) {
+        ExecutionJournal journal = new ExecutionJournal(file);
+        journal.load();
+        return journal;
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * Journals a triggered execution and forces it to disk. An execution shared by several builds stays
+     * journaled for the build that triggered it.
+     */
+    public synchronized void started(Record record) {
+        if (!isEnabled() || pending.containsKey(record.getExecId())) {
+            return;
+        }
+        pending.put(record.getExecId(), record);
+        Map<String, Object> line = record.toMap();
+        line.put("op", OP_START);
+        if (append(line)) {
+            force();
+        }
+    }
+
+    /**
+     * Journals the last known status of a pending execution, when it changed.
+     */
+    public synchronized void status(String execId, String status) {
+        Record record = pending.get(execId);
+        if (record == null || equal(record.getStatus(), status)) {
+            return;
+        }
+        record.status = status;
+        Map<String, Object> line = new LinkedHashMap<String, Object>();
+        line.put("op", OP_STATUS);
+        line.put("execId", execId);
+        line.put("status", status);
+        append(line);
+    }
+
+    public synchronized void finished(String execId, String status) {
+        if (pending.remove(execId) == null) {
+            return;
+        }
+        Map<String, Object> line = new LinkedHashMap<String, Object>();
+        line.put("op", OP_END);
+        line.put("execId", execId);
+        line.put("status", status);
+        append(line);
+        if (appended >= COMPACT_AFTER && !unreadable) {
+            compact();
+        }
+    }
+
+    public synchronized List<Record> getPending() {
+        List<Record> records = new ArrayList<Record>(pending.size());
+        for (Record record : pending.values()) {
+            records.add(record.copy());
+        }
+        return records;
+    }
+
+    /**
+     * @param owner a key unique to one build step, like the one each Pipeline step journals under
+     * @return the pending execution journaled under the key, or null
+     */
+    public synchronized Record findPending(String owner) {
+        if (owner == null) {
+            return null;
+        }
+        for (Record record : pending.values()) {
+            if (owner.equals(record.getOwner())) {
+                return record.copy();
+            }
+        }
+        return null;
+    }
+
+    private synchronized void load() {
+        if (!isEnabled()) {
+            return;
+        }
+        if (file.exists()) {
+            try {
+                replay();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read " + file + ", pending CodeStream executions are not reattached;"
+                        + " keeping the file and appending to it", e);
+                unreadable = true;
+            }
+        }
+        if (unreadable) {
+            openForAppend();
+        } else {
+            compact();
+        }
+        flushing = flusher().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_MS, FLUSH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService flusher() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "CodeStream execution journal flusher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return flusher;
+    }
+
+    /**
+     * Stops flushing, forces what was appended so far to disk and closes the file. Records journaled afterwards
+     * are dropped.
+     */
+    synchronized void close() {
+        if (flushing != null) {
+            flushing.cancel(false);
+            flushing = null;
+        }
+        if (channel != null) {
+            flush();
+            closeChannel();
+        }
+    }
+
+    private void replay() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                JsonNode node;
+                try {
+                    node = JsonSupport.readTree(line);
+                } catch (IOException e) {
+                    // A record torn by a crash; everything before it is intact
+                    LOGGER.log(Level.FINE, "Skipping unreadable journal record " + line, e);
+                    continue;
+                }
+                String op = node.path("op").getTextValue();
+                String execId = node.path("execId").getTextValue();
+                if (execId == null) {
+                    continue;
+                }
+                if (OP_START.equals(op)) {
+                    pending.put(execId, Record.fromJson(node));
+                } else if (OP_STATUS.equals(op)) {
+                    Record record = pending.get(execId);
+                    if (record != null) {
+                        record.status = node.path("status").getTextValue();
+                    }
+                } else if (OP_END.equals(op)) {
+                    pending.remove(execId);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the pending executions and swaps it in atomically.
+     */
+    private synchronized void compact() {
+        closeChannel();
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            FileChannel out = new RandomAccessFile(tmp, "rw").getChannel();
+            try {
+                out.truncate(0);
+                for (Record record : pending.values()) {
+                    Map<String, Object> line = record.toMap();
+                    line.put("op", OP_START);
+                    out.write(encode(line));
+                }
+                out.force(true);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+                throw new IOException("Unable to replace " + file);
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            channel.position(channel.size());
+            appended = 0;
+            dirty = false;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to compact " + file, e);
+        }
+    }
+
+    /**
+     * Appends to the journal as it is, without rewriting the records that could not be replayed.
+     */
+    private synchronized void openForAppend() {
+        try {
+            channel = new FileOutputStream(file, true).getChannel();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to append to " + file, e);
+        }
+    }
+
+    private boolean append(Map<String, Object> line) {
+        if (channel == null) {
+            return false;
+        }
+        try {
+            ByteBuffer buffer = encode(line);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            appended++;
+            dirty = true;
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to append to " + file, e);
+            return false;
+        }
+    }
+
+    synchronized void flush() {
+        if (dirty && channel != null) {
+            force();
+        }
+    }
+
+    private void force() {
+        try {
+            channel.force(false);
+            dirty = false;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to sync " + file, e);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to close " + file, e);
+            }
+            channel = null;
+        }
+    }
+
+    private static ByteBuffer encode(Map<String, Object> line) throws IOException {
+        return ByteBuffer.wrap((JsonSupport.toJson(line) + "\n").getBytes("UTF-8"));
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * What is needed to attach to an execution again: where it runs, how to log in and what it was last seen doing.
+     */
+    public static final class Record {
+        private final String owner;
+        private final String serverUrl;
+        private final String tenant;
+        private final String credentialsId;
+        private final String pipelineName;
+        private final String pipelineId;
+        private final String execId;
+        private final String pollStrategy;
+        private volatile String status;
+
+        public Record(String owner, String serverUrl, String tenant, String credentialsId, String pipelineName,
+                      String pipelineId, String execId, String pollStrategy, String status) {
+            this.owner = owner;
+            this.serverUrl = serverUrl;
+            this.tenant = tenant;
+            this.credentialsId = credentialsId;
+            this.pipelineName = pipelineName;
+            this.pipelineId = pipelineId;
+            this.execId = execId;
+            this.pollStrategy = pollStrategy;
+            this.status = status;
+        }
+
+        /**
+         * @return externalizable id of the build that triggered the execution, followed by a key of the step for
+         * a Pipeline step, or null
+         */
+        public String getOwner() {
+            return owner;
+        }
+
+        public String getServerUrl() {
+            return serverUrl;
+        }
+
+        public String getTenant() {
+            return tenant;
+        }
+
+        public String getCredentialsId() {
+            return credentialsId;
+        }
+
+        public String getPipelineName() {
+            return pipelineName;
+        }
+
+        public String getPipelineId() {
+            return pipelineId;
+        }
+
+        public String getExecId() {
+            return execId;
+        }
+
+        public String getPollStrategy() {
+            return pollStrategy;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        Record copy() {
+            return new Record(owner, serverUrl, tenant, credentialsId, pipelineName, pipelineId, execId, pollStrategy, status);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("execId", execId);
+            map.put("pipelineId", pipelineId);
+            map.put("pipelineName", pipelineName);
+            map.put("serverUrl", serverUrl);
+            map.put("tenant", tenant);
+            map.put("credentialsId", credentialsId);
+            map.put("pollStrategy", pollStrategy);
+            map.put("owner", owner);
+            map.put("status", status);
+            return map;
+        }
+
+        static Record fromJson(JsonNode node) {
+            return new Record(node.path("owner").getTextValue(), node.path("serverUrl").getTextValue(),
+                    node.path("tenant").getTextValue(), node.path("credentialsId").getTextValue(),
+                    node.path("pipelineName").getTextValue(), node.path("pipelineId").getTextValue(),
+                    node.path("execId").getTextValue(), node.path("pollStrategy").getTextValue(),
+                    node.path("status").getTextValue());
+        }
+    }
+}
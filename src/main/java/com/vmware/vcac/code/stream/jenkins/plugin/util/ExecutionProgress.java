@@ -0,0 +1,109 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionInfo;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSnapshot;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionStatus;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.StageExecutionInfo;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskExecutionInfo;
+
+/**
+ * Prints the stage and task transitions of one execution between consecutive polls.
+ * <p/>
+ * Every line starts with the pipeline name and execution id, so the progress of parallel executions writing to
+ * the same log can be told apart.
+ * <p/>
+ * Only the last seen status of each stage and task is kept; a poll that changed nothing prints and
+ * allocates nothing beyond the snapshot itself.
+ */
+public class ExecutionProgress {
+
+    private final Map<String, ExecutionStatus> stages = new HashMap<String, ExecutionStatus>();
+    private final Map<String, ExecutionStatus> tasks = new HashMap<String, ExecutionStatus>();
+    private final String prefix;
+
+    public ExecutionProgress(String pipelineName, String execId) {
+        this.prefix = "[" + pipelineName + " " + execId + "] ";
+    }
+
+    public void report(ExecutionSnapshot snapshot, PrintStream logger) {
+        List<StageExecutionInfo> stageInfos = snapshot.getStages();
+        if (stageInfos == null) {
+            return;
+        }
+        ExecutionIndex index = null;
+        for (int i = 0; i < stageInfos.size(); i++) {
+            StageExecutionInfo stage = stageInfos.get(i);
+            String stageKey = stage.getId() != null ? stage.getId() : stage.getName();
+            if (changed(stages, stageKey, stage.getStatus())) {
+                StringBuilder line = new StringBuilder(prefix).append("Stage ").append(stage.getName()).append(' ')
+                        .append(describe(stage.getStatus()));
+                if (isFinished(stage.getStatus())) {
+                    if (index == null) {
+                        index = new ExecutionIndex(stageInfos);
+                    }
+                    line.append(" after ").append(index.getStageRuntime(i) / 1000).append(" s of task run time");
+                }
+                logger.println(line);
+            }
+            List<TaskExecutionInfo> taskInfos = stage.getTasks();
+            for (int j = 0; taskInfos != null && j < taskInfos.size(); j++) {
+                TaskExecutionInfo task = taskInfos.get(j);
+                ExecutionInfo info = task.getExecutionInfo();
+                ExecutionStatus status = info == null ? null : info.getStatus();
+                if (task.getId() != null && changed(tasks, task.getId(), status)) {
+                    logger.println(prefix + describe(stage, task, status));
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the status and tells whether it is a transition worth printing.
+     */
+    private static boolean changed(Map<String, ExecutionStatus> states, String key, ExecutionStatus status) {
+        if (key == null || status == null) {
+            return false;
+        }
+        ExecutionStatus previous = states.put(key, status);
+        if (previous == status) {
+            return false;
+        }
+        // Nothing happened yet; the first real transition is reported
+        return !(previous == null && status == ExecutionStatus.NOT_STARTED);
+    }
+
+    private static String describe(StageExecutionInfo stage, TaskExecutionInfo task, ExecutionStatus status) {
+        StringBuilder line = new StringBuilder("  Task ");
+        line.append(task.getTask() != null ? task.getTask().getName() : task.getId())
+                .append(" of stage ").append(stage.getName()).append(' ').append(describe(status));
+        long runtime = task.getExecutionInfo().getRuntimeInMs();
+        if (runtime > 0 && status != ExecutionStatus.STARTED && status != ExecutionStatus.IN_PROGRESS) {
+            line.append(" after ").append(runtime / 1000).append(" s");
+        }
+        if (status == ExecutionStatus.FAILED && task.getMessages() != null) {
+            line.append(": ").append(task.getMessages());
+        }
+        return line.toString();
+    }
+
+    private static boolean isFinished(ExecutionStatus status) {
+        return status == ExecutionStatus.COMPLETED || status == ExecutionStatus.FAILED || status == ExecutionStatus.CANCELED;
+    }
+
+    private static String describe(ExecutionStatus status) {
+        switch (status) {
+            case STARTED:
+            case IN_PROGRESS:
+                return "started";
+            case NOT_STARTED:
+                return "not started";
+            default:
+                return status.name().toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSummary;
+import hudson.Util;
+import org.codehaus.jackson.JsonNode;
+
+/**
+ * Keeps full execution responses out of the build environment.
+ * <p/>
+ * The waiting code hands the raw response over as <tt>CS_PIPELINE_EXECUTION_RES_JSON</tt>. {@link #store} moves it
+ * into a gzip file <tt>codestream/execution-&lt;execution id&gt;.json.gz</tt> in the build directory, exports its
+ * path as <tt>CS_PIPELINE_EXECUTION_RES_FILE</tt> and extracts the configured output variables with {@link JsonPath}. <tt>CS_PIPELINE_EXECUTION_RES</tt> itself only
+ * carries the compact summary. Keys with a suffix, as exported for parallel pipelines, keep their suffix.
+ * <p/>
+ * The build directory, and so <tt>CS_PIPELINE_EXECUTION_RES_FILE</tt>, is a path on the Jenkins controller, also
+ * when the build runs on an agent. Build steps on an agent have to use the output variables instead.
+ * <p/>
+ * The {@link ExecutionSummary} objects persisted with the build are built in the same pass.
+ */
+public final class ExecutionResultStore {
+
+    public static final String RAW_PREFIX = "CS_PIPELINE_EXECUTION_RES_JSON";
+    public static final String FILE_PREFIX = "CS_PIPELINE_EXECUTION_RES_FILE";
+    public static final String DIR_NAME = "codestream";
+
+    private ExecutionResultStore() {
+    }
+
+    /**
+     * @param buildDir root directory of the build
+     * @param data     exported variables, rewritten in place
+     * @param exports  variable name to JSONPath of the values to export, may be empty
+     * @return the summary of every stored response by variable suffix, <tt>""</tt> for a single pipeline
+     */
+    public static Map<String, ExecutionSummary> store(File buildDir, Map<String, String> data, Map<String, JsonPath> exports) throws IOException {
+        Map<String, ExecutionSummary> summaries = new LinkedHashMap<String, ExecutionSummary>();
+        for (String key : new ArrayList<String>(data.keySet())) {
+            if (!key.startsWith(RAW_PREFIX)) {
+                continue;
+            }
+            String suffix = key.substring(RAW_PREFIX.length());
+            String json = data.remove(key);
+            if (json == null) {
+                continue;
+            }
+            File dir = new File(buildDir, DIR_NAME);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            ExecutionSummary summary = new ReleasePipelineExecutionInfoParser(json).getSummary();
+            File file = new File(dir, fileName(summary.getExecutionId(), suffix));
+            write(file, json);
+            data.put(FILE_PREFIX + suffix, file.getAbsolutePath());
+            summary.setResponseFile(file.getAbsolutePath());
+            summaries.put(suffix, summary);
+            if (!exports.isEmpty()) {
+                JsonNode root = JsonSupport.readTree(json);
+                for (Map.Entry<String, JsonPath> export : exports.entrySet()) {
+                    String value = export.getValue().evaluate(root);
+                    if (value != null) {
+                        data.put(export.getKey() + suffix, value);
+                    }
+                }
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Names the file after the execution, so several steps of one build, and the pipelines of a parallel step,
+     * never overwrite each other's response.
+     */
+    static String fileName(String execId, String suffix) {
+        if (execId == null) {
+            return "execution" + suffix.toLowerCase() + ".json.gz";
+        }
+        return "execution-" + Util.rawEncode(execId) + ".json.gz";
+    }
+
+    /**
+     * Reads back a response written by {@link #store}.
+     */
+    public static String load(File file) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+        try {
+            StringBuilder json = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                json.append(buffer, 0, read);
+            }
+            return json.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parses the output variable configuration: one <tt>NAME=$.json.path</tt> per line, <tt>#</tt> starts a comment.
+     */
+    public static Map<String, JsonPath> parseExports(String spec) throws IOException {
+        Map<String, JsonPath> exports = new LinkedHashMap<String, JsonPath>();
+        if (spec == null) {
+            return exports;
+        }
+        for (String line : spec.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            int eq = line.indexOf('=');
+            if (eq <= 0) {
+                throw new IOException("Output variable must look like NAME=$.path: " + line);
+            }
+            try {
+                exports.put(line.substring(0, eq).trim(), JsonPath.compile(line.substring(eq + 1)));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+        return exports;
+    }
+
+    private static void write(File file, String json) throws IOException {
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+        try {
+            out.write(json.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContextBuilder;
+
+/**
+ * JVM wide registry of pooled HTTP clients, one per CodeStream server origin and trust setting.
+ * <p/>
+ * Clients are created lazily, kept for the lifetime of the JVM and closed from a shutdown hook.
+ * Limits can be tuned with system properties prefixed with this class name
+ * (<tt>maxTotal</tt>, <tt>maxPerRoute</tt>, <tt>keepAliveMs</tt>, <tt>idleTimeoutMs</tt>). Requests time out after
+ * <tt>connectTimeoutMs</tt> to connect, <tt>socketTimeoutMs</tt> without data and <tt>connectionRequestTimeoutMs</tt>
+ * waiting for a pooled connection, so a hung server cannot block a build or a poller thread forever.
+ * <p/>
+ * {@link #getTransport(String)} hands out the {@link HttpTransport} selected with the <tt>transport</tt> system
+ * property: <tt>blocking</tt> (default) sends asynchronous requests on the calling thread over these pooled clients,
+ * <tt>async</tt> over an {@link AsyncHttpTransport} per origin.
+ */
+public final class HttpClientPool {
+
+    private static final Logger LOGGER = Logger.getLogger(HttpClientPool.class.getName());
+
+    private static final String PREFIX = HttpClientPool.class.getName() + ".";
+    static final int MAX_TOTAL = Integer.getInteger(PREFIX + "maxTotal", 100);
+    static final int MAX_PER_ROUTE = Integer.getInteger(PREFIX + "maxPerRoute", 20);
+    static final long KEEP_ALIVE_MS = Long.getLong(PREFIX + "keepAliveMs", 60 * 1000L);
+    static final long IDLE_TIMEOUT_MS = Long.getLong(PREFIX + "idleTimeoutMs", 30 * 1000L);
+    static final int CONNECT_TIMEOUT_MS = Integer.getInteger(PREFIX + "connectTimeoutMs", 10 * 1000);
+    static final int SOCKET_TIMEOUT_MS = Integer.getInteger(PREFIX + "socketTimeoutMs", 60 * 1000);
+    static final int CONNECTION_REQUEST_TIMEOUT_MS = Integer.getInteger(PREFIX + "connectionRequestTimeoutMs", 30 * 1000);
+    static final boolean ASYNC = "async".equalsIgnoreCase(System.getProperty(PREFIX + "transport", "blocking"));
+    private static final long WAIT_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final ConcurrentMap<String, PooledClient> CLIENTS = new ConcurrentHashMap<String, PooledClient>();
+    private static final ConcurrentMap<String, AsyncHttpTransport> ASYNC_TRANSPORTS = new ConcurrentHashMap<String, AsyncHttpTransport>();
+
+    private static final AtomicLong LEASES = new AtomicLong();
+    private static final AtomicLong WAITS = new AtomicLong();
+    private static final AtomicLong WAIT_TIME_NANOS = new AtomicLong();
+
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "CodeStream HTTP connection evictor");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static {
+        EVICTOR.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (PooledClient client : CLIENTS.values()) {
+                    client.connectionManager.closeExpiredConnections();
+                    client.connectionManager.closeIdleConnections(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }, IDLE_TIMEOUT_MS, IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread("CodeStream HTTP client shutdown") {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        });
+    }
+
+    private HttpClientPool() {
+    }
+
+    /**
+     * Returns the shared client for the origin of the given server URL, trusting self signed certificates
+     * like the plugin always did.
+     */
+    public static CloseableHttpClient getClient(String serverUrl) throws IOException {
+        return getClient(serverUrl, true);
+    }
+
+    public static CloseableHttpClient getClient(String serverUrl, boolean trustSelfSigned) throws IOException {
+        return getPooledClient(serverUrl, trustSelfSigned).httpClient;
+    }
+
+    /**
+     * Returns the configured transport for the given server URL, trusting self signed certificates like
+     * {@link #getClient(String)}.
+     */
+    public static HttpTransport getTransport(String serverUrl) throws IOException {
+        return getTransport(serverUrl, ASYNC);
+    }
+
+    /**
+     * @param async whether asynchronous requests go over the non-blocking client rather than the calling thread
+     */
+    public static HttpTransport getTransport(String serverUrl, boolean async) throws IOException {
+        PooledClient client = getPooledClient(serverUrl, true);
+        if (!async) {
+            return client.transport;
+        }
+        String key = getOrigin(serverUrl);
+        AsyncHttpTransport transport = ASYNC_TRANSPORTS.get(key);
+        if (transport == null) {
+            synchronized (ASYNC_TRANSPORTS) {
+                transport = ASYNC_TRANSPORTS.get(key);
+                if (transport == null) {
+                    transport = new AsyncHttpTransport(client.httpClient, true);
+                    ASYNC_TRANSPORTS.put(key, transport);
+                    LOGGER.log(Level.FINE, "Created async HTTP transport for {0}", key);
+                }
+            }
+        }
+        return transport;
+    }
+
+    private static PooledClient getPooledClient(String serverUrl, boolean trustSelfSigned) throws IOException {
+        String key = getOrigin(serverUrl) + "|" + trustSelfSigned;
+        PooledClient client = CLIENTS.get(key);
+        if (client == null) {
+            synchronized (CLIENTS) {
+                client = CLIENTS.get(key);
+                if (client == null) {
+                    client = new PooledClient(trustSelfSigned);
+                    CLIENTS.put(key, client);
+                    LOGGER.log(Level.FINE, "Created pooled HTTP client for {0}", key);
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Closes every pooled client and transport. Subsequent calls to {@link #getClient(String)} create fresh pools.
+     */
+    public static void shutdown() {
+        synchronized (ASYNC_TRANSPORTS) {
+            for (AsyncHttpTransport transport : ASYNC_TRANSPORTS.values()) {
+                try {
+                    transport.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to close async HTTP transport", e);
+                }
+            }
+            ASYNC_TRANSPORTS.clear();
+        }
+        synchronized (CLIENTS) {
+            for (PooledClient client : CLIENTS.values()) {
+                try {
+                    client.httpClient.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to close pooled HTTP client", e);
+                }
+            }
+            CLIENTS.clear();
+        }
+    }
+
+    public static long getLeaseCount() {
+        return LEASES.get();
+    }
+
+    public static long getWaitCount() {
+        return WAITS.get();
+    }
+
+    public static long getWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(WAIT_TIME_NANOS.get());
+    }
+
+    public static int getLeasedConnections() {
+        int leased = 0;
+        for (PooledClient client : CLIENTS.values()) {
+            leased += client.connectionManager.getTotalStats().getLeased();
+        }
+        return leased;
+    }
+
+    public static int getAvailableConnections() {
+        int available = 0;
+        for (PooledClient client : CLIENTS.values()) {
+            available += client.connectionManager.getTotalStats().getAvailable();
+        }
+        return available;
+    }
+
+    private static String getOrigin(String serverUrl) throws IOException {
+        try {
+            URI uri = new URI(serverUrl);
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                throw new IOException("Invalid CodeStream server url " + serverUrl);
+            }
+            return uri.getScheme().toLowerCase() + "://" + uri.getHost().toLowerCase() + ":" + uri.getPort();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid CodeStream server url " + serverUrl, e);
+        }
+    }
+
+    private static final class PooledClient {
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final CloseableHttpClient httpClient;
+        private final HttpTransport transport;
+
+        PooledClient(boolean trustSelfSigned) throws IOException {
+            SSLConnectionSocketFactory sslsf;
+            try {
+                SSLContextBuilder builder = new SSLContextBuilder();
+                if (trustSelfSigned) {
+                    builder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
+                }
+                sslsf = new SSLConnectionSocketFactory(builder.build());
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Unable to initialize SSL context", e);
+            }
+            Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", sslsf)
+                    .build();
+            connectionManager = new CountingConnectionManager(registry);
+            connectionManager.setMaxTotal(MAX_TOTAL);
+            connectionManager.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+            connectionManager.setValidateAfterInactivity(2000);
+            httpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setKeepAliveStrategy(new CappedKeepAliveStrategy())
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectTimeout(CONNECT_TIMEOUT_MS)
+                            .setSocketTimeout(SOCKET_TIMEOUT_MS)
+                            .setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT_MS)
+                            .build())
+                    .build();
+            transport = new BlockingHttpTransport(httpClient);
+        }
+    }
+
+    /**
+     * Sends every request on the calling thread; an asynchronous request is complete once it returns.
+     */
+    private static final class BlockingHttpTransport implements HttpTransport {
+        private final CloseableHttpClient httpClient;
+
+        BlockingHttpTransport(CloseableHttpClient httpClient) {
+            this.httpClient = httpClient;
+        }
+
+        @Override
+        public HttpResponse execute(HttpUriRequest request) throws IOException {
+            return httpClient.execute(request);
+        }
+
+        @Override
+        public ListenableFuture<HttpResponse> executeAsync(HttpUriRequest request) {
+            try {
+                return Futures.immediateFuture(execute(request));
+            } catch (IOException e) {
+                return Futures.immediateFailedFuture(e);
+            } catch (RuntimeException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+    }
+
+    /**
+     * Honours the server's Keep-Alive header but never keeps a connection longer than {@link #KEEP_ALIVE_MS}.
+     */
+    static final class CappedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? Math.min(duration, KEEP_ALIVE_MS) : KEEP_ALIVE_MS;
+        }
+    }
+
+    /**
+     * Connection manager that counts leases and the time callers spend waiting for an exhausted pool.
+     */
+    private static final class CountingConnectionManager extends PoolingHttpClientConnectionManager {
+
+        CountingConnectionManager(Registry<ConnectionSocketFactory> registry) {
+            super(registry);
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            final ConnectionRequest delegate = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit tunit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    try {
+                        return delegate.get(timeout, tunit);
+                    } finally {
+                        LEASES.incrementAndGet();
+                        long waited = System.nanoTime() - start;
+                        if (waited > WAIT_THRESHOLD_NANOS) {
+                            WAITS.incrementAndGet();
+                            WAIT_TIME_NANOS.addAndGet(waited);
+                        }
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return delegate.cancel();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Sends the requests of a {@link com.vmware.vcac.code.stream.jenkins.plugin.CodeStreamClient} to one server.
+ * <p/>
+ * Obtained from {@link HttpClientPool#getTransport(String)}. Callers must consume the response entity so
+ * pooled connections are released.
+ */
+public interface HttpTransport {
+
+    /**
+     * Sends the request and blocks the calling thread until the response headers arrived.
+     */
+    HttpResponse execute(HttpUriRequest request) throws IOException;
+
+    /**
+     * Sends the request without waiting for the response. Depending on the transport the future is completed
+     * before this method returns or later from one of the transport's I/O threads; listeners that do real work
+     * must therefore be given an executor of their own.
+     */
+    ListenableFuture<HttpResponse> executeAsync(HttpUriRequest request);
+}
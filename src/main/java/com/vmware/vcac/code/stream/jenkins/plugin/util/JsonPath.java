@@ -0,0 +1,182 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.JsonNode;
+
+/**
+ * Small JSONPath subset for picking values out of an execution response.
+ * <p/>
+ * Supported: <tt>$</tt>, <tt>.field</tt>, <tt>['field']</tt>, <tt>[index]</tt>, <tt>[*]</tt> and
+ * <tt>[?(@.field=='value')]</tt>. With wildcards and filters the first match wins. String values that hold
+ * JSON themselves, like task <tt>outputParams</tt>, are parsed when the path goes on into them.
+ */
+public final class JsonPath {
+
+    private final String expression;
+    private final List<String> segments;
+
+    private JsonPath(String expression, List<String> segments) {
+        this.expression = expression;
+        this.segments = segments;
+    }
+
+    /**
+     * @throws IllegalArgumentException when the expression is not in the supported subset
+     */
+    public static JsonPath compile(String expression) {
+        String path = expression == null ? "" : expression.trim();
+        if (!path.startsWith("$")) {
+            throw new IllegalArgumentException("JSONPath must start with $: " + expression);
+        }
+        List<String> segments = new ArrayList<String>();
+        int i = 1;
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                int end = i + 1;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                if (end == i + 1) {
+                    throw new IllegalArgumentException("Empty field name in JSONPath " + expression);
+                }
+                segments.add(path.substring(i + 1, end));
+                i = end;
+            } else if (c == '[') {
+                int end = path.startsWith("[?(", i) ? path.indexOf(")]", i) + 1 : path.indexOf(']', i);
+                if (end <= i) {
+                    throw new IllegalArgumentException("Unterminated [ in JSONPath " + expression);
+                }
+                segments.add(bracketSegment(path.substring(i + 1, end).trim(), expression));
+                i = end + 1;
+            } else {
+                throw new IllegalArgumentException("Unexpected '" + c + "' in JSONPath " + expression);
+            }
+        }
+        return new JsonPath(expression, segments);
+    }
+
+    /**
+     * @return the field name of <tt>['field']</tt>, <tt>[index</tt> for an index or <tt>[*</tt>, or the filter
+     */
+    private static String bracketSegment(String segment, String expression) {
+        if (segment.startsWith("?(")) {
+            if (parseFilter(segment) == null) {
+                throw new IllegalArgumentException("Filter " + segment + " of JSONPath " + expression
+                        + " must look like ?(@.field=='value')");
+            }
+            return segment;
+        }
+        if (isQuoted(segment)) {
+            return segment.substring(1, segment.length() - 1);
+        }
+        if ("*".equals(segment) || segment.matches("\\d+")) {
+            return "[" + segment;
+        }
+        throw new IllegalArgumentException("Invalid index [" + segment + "] in JSONPath " + expression
+                + ", expected a number, * or a quoted field name");
+    }
+
+    /**
+     * @return the field and the value of a <tt>?(@.field=='value')</tt> filter, or null when it is malformed
+     */
+    private static String[] parseFilter(String segment) {
+        if (!segment.endsWith(")")) {
+            return null;
+        }
+        String condition = segment.substring(2, segment.length() - 1).trim();
+        int eq = condition.indexOf("==");
+        if (!condition.startsWith("@.") || eq < 0) {
+            return null;
+        }
+        String field = condition.substring(2, eq).trim();
+        String value = condition.substring(eq + 2).trim();
+        if (field.length() == 0 || value.length() == 0) {
+            return null;
+        }
+        if (value.startsWith("'") || value.startsWith("\"")) {
+            if (!isQuoted(value)) {
+                return null;
+            }
+            value = value.substring(1, value.length() - 1);
+        }
+        return new String[]{field, value};
+    }
+
+    private static boolean isQuoted(String s) {
+        return s.length() >= 2 && (s.charAt(0) == '\'' || s.charAt(0) == '"') && s.charAt(s.length() - 1) == s.charAt(0);
+    }
+
+    /**
+     * @return the text of the matched value, JSON for objects and arrays, or null when nothing matches
+     */
+    public String evaluate(JsonNode root) {
+        JsonNode node = select(root, 0);
+        if (node == null || node.isMissingNode() || node.isNull()) {
+            return null;
+        }
+        return node.isValueNode() ? node.asText() : node.toString();
+    }
+
+    private JsonNode select(JsonNode node, int index) {
+        if (node == null) {
+            return null;
+        }
+        if (index == segments.size()) {
+            return node;
+        }
+        if (node.isTextual()) {
+            try {
+                node = JsonSupport.readTree(node.getTextValue());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        String segment = segments.get(index);
+        if ("[*".equals(segment) || "*".equals(segment)) {
+            for (JsonNode child : node) {
+                JsonNode match = select(child, index + 1);
+                if (match != null && !match.isMissingNode()) {
+                    return match;
+                }
+            }
+            return null;
+        }
+        if (segment.startsWith("?(")) {
+            return selectFiltered(node, segment, index);
+        }
+        if (segment.startsWith("[")) {
+            try {
+                return select(node.get(Integer.parseInt(segment.substring(1))), index + 1);
+            } catch (NumberFormatException e) {
+                // An index beyond int range matches nothing
+                return null;
+            }
+        }
+        return select(node.get(segment), index + 1);
+    }
+
+    private JsonNode selectFiltered(JsonNode node, String segment, int index) {
+        String[] filter = parseFilter(segment);
+        String field = filter[0];
+        String value = filter[1];
+        for (JsonNode child : node) {
+            JsonNode candidate = child.get(field);
+            if (candidate != null && value.equals(candidate.asText())) {
+                JsonNode match = select(child, index + 1);
+                if (match != null) {
+                    return match;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
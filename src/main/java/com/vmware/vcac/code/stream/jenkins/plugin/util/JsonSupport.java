@@ -0,0 +1,100 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
+
+/**
+ * The plugin's single JSON layer. Holds one pre-configured {@link ObjectMapper} and caches an
+ * {@link ObjectReader} per bound type; all of them are immutable and safe to share between threads.
+ * The streaming parsers of this package share the token helpers at the end.
+ */
+public final class JsonSupport {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private static final ObjectWriter WRITER = MAPPER.writer();
+
+    private static final ObjectReader TREE_READER = MAPPER.reader(JsonNode.class);
+
+    private static final ConcurrentMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<Class<?>, ObjectReader>();
+
+    private JsonSupport() {
+    }
+
+    public static JsonFactory factory() {
+        return MAPPER.getJsonFactory();
+    }
+
+    public static ObjectReader reader(Class<?> type) {
+        ObjectReader reader = READERS.get(type);
+        if (reader == null) {
+            reader = MAPPER.reader(type);
+            ObjectReader existing = READERS.putIfAbsent(type, reader);
+            if (existing != null) {
+                reader = existing;
+            }
+        }
+        return reader;
+    }
+
+    public static ObjectWriter writer() {
+        return WRITER;
+    }
+
+    public static JsonNode readTree(String json) throws IOException {
+        return TREE_READER.readValue(json);
+    }
+
+    public static String toJson(Object value) throws IOException {
+        return WRITER.writeValueAsString(value);
+    }
+
+    /**
+     * Advances to the next object of the current array, skipping anything that is not an object.
+     *
+     * @return false at the end of the array
+     */
+    static boolean nextArrayElement(JsonParser jp) throws IOException {
+        JsonToken token;
+        while ((token = jp.nextToken()) != null && token != JsonToken.END_ARRAY) {
+            if (token == JsonToken.START_OBJECT) {
+                return true;
+            }
+            jp.skipChildren();
+        }
+        return false;
+    }
+
+    /**
+     * Reads the <tt>errors</tt> array of an error response, positioned on its start.
+     *
+     * @return the first <tt>systemMessage</tt> or <tt>message</tt>, or null
+     */
+    static String readError(JsonParser jp) throws IOException {
+        String message = null;
+        while (nextArrayElement(jp)) {
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String field = jp.getCurrentName();
+                JsonToken token = jp.nextToken();
+                if (token == JsonToken.VALUE_STRING && message == null
+                        && ("systemMessage".equals(field) || "message".equals(field))) {
+                    message = jp.getText();
+                } else {
+                    jp.skipChildren();
+                }
+            }
+        }
+        return message;
+    }
+}
@@ -0,0 +1,88 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded LRU cache for pipeline metadata responses.
+ * <p/>
+ * Entries younger than the TTL are served without asking the server. Older ones keep their
+ * <tt>ETag</tt>/<tt>Last-Modified</tt> validators so the caller can revalidate them with a conditional
+ * request and keep the cached value on <tt>304 Not Modified</tt>.
+ */
+public class PipelineMetadataCache<V> {
+
+    private final long ttlMs;
+    private final Map<String, Entry<V>> entries;
+
+    public PipelineMetadataCache(final int maxEntries, long ttlMs) {
+        this.ttlMs = ttlMs;
+        this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static String key(String serverUrl, String tenant, String name) {
+        return serverUrl + "|" + tenant + "|" + name;
+    }
+
+    public synchronized Entry<V> get(String key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(String key, V value, String etag, String lastModified) {
+        entries.put(key, new Entry<V>(value, etag, lastModified, System.currentTimeMillis() + ttlMs));
+    }
+
+    /**
+     * Marks an entry as fresh again after the server confirmed it has not changed.
+     */
+    public synchronized void revalidated(String key, Entry<V> entry) {
+        entries.put(key, new Entry<V>(entry.value, entry.etag, entry.lastModified, System.currentTimeMillis() + ttlMs));
+    }
+
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public static final class Entry<V> {
+        private final V value;
+        private final String etag;
+        private final String lastModified;
+        private final long freshUntil;
+
+        Entry(V value, String etag, String lastModified, long freshUntil) {
+            this.value = value;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.freshUntil = freshUntil;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < freshUntil;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelinePage;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Streams a page of the release pipeline listing, keeping only the pipeline names and the paging metadata.
+ */
+public final class PipelinePageParser {
+
+    private PipelinePageParser() {
+    }
+
+    public static PipelinePage read(InputStream in) throws IOException {
+        JsonParser jp = JsonSupport.factory().createJsonParser(in);
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Unexpected pipeline listing response");
+            }
+            List<String> names = null;
+            int totalPages = 0;
+            String error = null;
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String field = jp.getCurrentName();
+                JsonToken token = jp.nextToken();
+                if ("content".equals(field) && token == JsonToken.START_ARRAY) {
+                    names = readNames(jp);
+                } else if ("metadata".equals(field) && token == JsonToken.START_OBJECT) {
+                    totalPages = readTotalPages(jp);
+                } else if ("errors".equals(field) && token == JsonToken.START_ARRAY) {
+                    error = JsonSupport.readError(jp);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            if (names == null) {
+                throw new IOException(error != null ? error : "Pipeline listing response has no content");
+            }
+            return new PipelinePage(names, totalPages);
+        } finally {
+            jp.close();
+        }
+    }
+
+    private static List<String> readNames(JsonParser jp) throws IOException {
+        List<String> names = new ArrayList<String>();
+        while (JsonSupport.nextArrayElement(jp)) {
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String field = jp.getCurrentName();
+                JsonToken valueToken = jp.nextToken();
+                if ("name".equals(field) && valueToken == JsonToken.VALUE_STRING) {
+                    names.add(jp.getText());
+                } else {
+                    jp.skipChildren();
+                }
+            }
+        }
+        return names;
+    }
+
+    private static int readTotalPages(JsonParser jp) throws IOException {
+        int totalPages = 0;
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+            if ("totalPages".equals(field) && token == JsonToken.VALUE_NUMBER_INT) {
+                totalPages = jp.getIntValue();
+            } else {
+                jp.skipChildren();
+            }
+        }
+        return totalPages;
+    }
+}
@@ -0,0 +1,108 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelineParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ReleasePipeline;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Checks the parameters of a trigger against the parameters the pipeline definition declares, before anything
+ * is sent to CodeStream.
+ * <p/>
+ * Unknown and duplicate names, values that do not fit a <tt>BOOLEAN</tt> or <tt>NUMBER</tt> parameter and
+ * required parameters left without a value are all reported in one {@link IOException}. Parameters that are
+ * not given keep the default of the definition. Definitions without a parameter list are not checked; setting
+ * the system property <tt>enabled</tt> of this class to false turns the check off altogether.
+ */
+public final class PipelineParamValidator {
+
+    static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty(PipelineParamValidator.class.getName() + ".enabled", "true"));
+
+    private PipelineParamValidator() {
+    }
+
+    /**
+     * @return every parameter of the definition, with the user value when given and the default otherwise
+     */
+    public static List<PipelineParam> merge(ReleasePipeline pipeline, List<PipelineParam> userParams) throws IOException {
+        List<PipelineParam> given = userParams == null ? new ArrayList<PipelineParam>() : userParams;
+        if (!ENABLED || pipeline.getPipelineParams() == null) {
+            return given;
+        }
+        Map<String, PipelineParam> schema = new LinkedHashMap<String, PipelineParam>();
+        for (PipelineParam param : pipeline.getPipelineParams()) {
+            schema.put(param.getName(), param);
+        }
+        List<String> errors = new ArrayList<String>();
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for (PipelineParam param : given) {
+            String name = param.getName();
+            if (name == null) {
+                if (param.getValue() != null) {
+                    errors.add("parameter value " + param.getValue() + " has no name");
+                }
+                continue;
+            }
+            if (!schema.containsKey(name)) {
+                errors.add("unknown parameter " + name + suggest(name, schema));
+            } else if (values.containsKey(name)) {
+                errors.add("parameter " + name + " is given more than once");
+            } else {
+                values.put(name, param.getValue());
+            }
+        }
+        List<PipelineParam> merged = new ArrayList<PipelineParam>(schema.size());
+        for (PipelineParam definition : schema.values()) {
+            String name = definition.getName();
+            String value = values.get(name) != null ? values.get(name) : definition.getValue();
+            if (value == null) {
+                if (definition.isRequired()) {
+                    errors.add("required parameter " + name + " has no value");
+                }
+            } else if (!fitsType(definition.getType(), value)) {
+                errors.add("parameter " + name + " of type " + definition.getType() + " cannot be " + value);
+            }
+            PipelineParam param = new PipelineParam(value, name);
+            if (definition.getType() != null) {
+                param.setType(definition.getType());
+            }
+            merged.add(param);
+        }
+        if (!errors.isEmpty()) {
+            throw new IOException("Invalid parameters for pipeline " + pipeline.getName() + ": "
+                    + StringUtils.join(errors, "; ") + ". Parameters of the pipeline: " + StringUtils.join(schema.keySet(), ", "));
+        }
+        return merged;
+    }
+
+    private static boolean fitsType(String type, String value) {
+        if ("BOOLEAN".equalsIgnoreCase(type)) {
+            return "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value);
+        }
+        if ("NUMBER".equalsIgnoreCase(type)) {
+            try {
+                new BigDecimal(value.trim());
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String suggest(String name, Map<String, PipelineParam> schema) {
+        for (String candidate : schema.keySet()) {
+            if (candidate != null && candidate.equalsIgnoreCase(name)) {
+                return " (did you mean " + candidate + "?)";
+            }
+        }
+        return "";
+    }
+}
@@ -0,0 +1,50 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers how long executions of each pipeline took so the ETA poll strategy can guess
+ * when a running one will finish. Kept as an exponentially weighted average per server and pipeline.
+ */
+public final class PipelineRuntimeHistory {
+
+    private static final double WEIGHT = 0.3;
+
+    private static final ConcurrentMap<String, Long> RUNTIMES = new ConcurrentHashMap<String, Long>();
+
+    private PipelineRuntimeHistory() {
+    }
+
+    /**
+     * @return the expected run time in milliseconds, or 0 when the pipeline has not finished before
+     */
+    public static long getExpectedRuntime(String serverUrl, String pipelineId) {
+        Long runtime = RUNTIMES.get(key(serverUrl, pipelineId));
+        return runtime == null ? 0 : runtime;
+    }
+
+    public static void record(String serverUrl, String pipelineId, long runtimeInMs) {
+        if (runtimeInMs <= 0) {
+            return;
+        }
+        String key = key(serverUrl, pipelineId);
+        while (true) {
+            Long previous = RUNTIMES.get(key);
+            if (previous == null) {
+                if (RUNTIMES.putIfAbsent(key, runtimeInMs) == null) {
+                    return;
+                }
+            } else {
+                long average = (long) (WEIGHT * runtimeInMs + (1 - WEIGHT) * previous);
+                if (RUNTIMES.replace(key, previous, average)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static String key(String serverUrl, String pipelineId) {
+        return serverUrl + "|" + pipelineId;
+    }
+}
@@ -1,14 +1,22 @@
 package com.vmware.vcac.code.stream.jenkins.plugin.util;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionInfo;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSnapshot;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionStatus;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSummary;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.ReleasePipelineExecutionInfo;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.StageExecutionInfo;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.Task;
 import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskExecutionInfo;
-import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 
 /**
  * Created by rsaraf on 4/27/2015.
@@ -17,7 +25,7 @@ public class ReleasePipelineExecutionInfoParser {
 
     ReleasePipelineExecutionInfo executionResponse;
     String executionResponseJson;
-    ObjectMapper mapper = new ObjectMapper();
+    private ExecutionIndex index;
 
     public ReleasePipelineExecutionInfoParser(ReleasePipelineExecutionInfo executionResponse) {
         this.executionResponse = executionResponse;
@@ -25,25 +33,24 @@ public class ReleasePipelineExecutionInfoParser {
 
     public ReleasePipelineExecutionInfoParser(String executionResponseJson) throws IOException {
         this.executionResponseJson = executionResponseJson;
-        this.executionResponse = mapper.readValue(executionResponseJson, ReleasePipelineExecutionInfo.class);
+        this.executionResponse = JsonSupport.reader(ReleasePipelineExecutionInfo.class).readValue(executionResponseJson);
     }
 
+    /**
+     * @return the first failed task in pipeline order, or null
+     */
     public TaskExecutionInfo getFailedTask() {
-        TaskExecutionInfo failedTask = null;
-        List<StageExecutionInfo> stages = executionResponse.getStages();
-        for (StageExecutionInfo stage : stages) {
-            for (TaskExecutionInfo executionInfo : stage.getTasks()) {
-                ExecutionInfo taskExecStatus = executionInfo.getExecutionInfo();
-                if (taskExecStatus != null) {
-                    ExecutionStatus status = taskExecStatus.getStatus();
-                    if (ExecutionStatus.FAILED == status) {
-                        failedTask = executionInfo;
-                        break;
-                    }
-                }
-            }
+        return getIndex().getFirstFailedTask();
+    }
+
+    /**
+     * Stage and task lookups, built on first use.
+     */
+    public synchronized ExecutionIndex getIndex() {
+        if (index == null) {
+            index = new ExecutionIndex(executionResponse.getStages());
         }
-        return failedTask;
+        return index;
     }
 
     public ExecutionStatus getPipelineExecStatus() throws IOException {
@@ -55,8 +62,16 @@ public class ReleasePipelineExecutionInfoParser {
         return executionStatus;
     }
 
+    public ExecutionInfo getExecutionInfo() {
+        return executionResponse.getExecutionInfo();
+    }
+
     public boolean isPipelineCompleted() throws IOException {
         ExecutionStatus pipelineExecStatus = this.getPipelineExecStatus();
+        if (pipelineExecStatus == null) {
+            ExecutionInfo info = executionResponse.getExecutionInfo();
+            return info != null && info.getFinishedAt() != null;
+        }
         switch (pipelineExecStatus) {
             case COMPLETED:
             case FAILED:
@@ -71,5 +86,192 @@ public class ReleasePipelineExecutionInfoParser {
         return executionResponseJson;
     }
 
+    public ExecutionSummary getSummary() {
+        return ExecutionSummary.of(executionResponse, getIndex());
+    }
+
+    /**
+     * Compact JSON summary of the execution: id, status, run time, the status and run time of each stage and the
+     * first failed task.
+     */
+    public String getSummaryJson() throws IOException {
+        Map<String, Object> summary = new LinkedHashMap<String, Object>();
+        summary.put("id", executionResponse.getId());
+        ExecutionInfo info = executionResponse.getExecutionInfo();
+        if (info != null) {
+            summary.put("status", info.getStatus());
+            summary.put("runtimeInMs", info.getRuntimeInMs());
+        }
+        List<Map<String, Object>> stages = new ArrayList<Map<String, Object>>();
+        List<StageExecutionInfo> stageInfos = executionResponse.getStages();
+        for (int i = 0; stageInfos != null && i < stageInfos.size(); i++) {
+            StageExecutionInfo stage = stageInfos.get(i);
+            Map<String, Object> stageSummary = new LinkedHashMap<String, Object>();
+            stageSummary.put("name", stage.getName());
+            stageSummary.put("status", stage.getStatus());
+            stageSummary.put("runtimeInMs", getIndex().getStageRuntime(i));
+            stages.add(stageSummary);
+        }
+        summary.put("stages", stages);
+        TaskExecutionInfo failedTask = getFailedTask();
+        if (failedTask != null) {
+            summary.put("failedTask", failedTask.getTask() != null ? failedTask.getTask().getName() : failedTask.getId());
+            summary.put("message", failedTask.getMessages());
+        }
+        return JsonSupport.toJson(summary);
+    }
+
+    /**
+     * Reads only <tt>executionInfo.status</tt> and the skeleton of the stages and tasks from an execution response,
+     * streaming over the document so large task inputs and outputs are skipped instead of being materialized.
+     */
+    public static ExecutionSnapshot readSnapshot(InputStream in) throws IOException {
+        JsonParser jp = JsonSupport.factory().createJsonParser(in);
+        try {
+            if (jp.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Unexpected pipeline execution response");
+            }
+            ExecutionStatus status = null;
+            boolean hasExecutionInfo = false;
+            boolean finished = false;
+            List<StageExecutionInfo> stages = new ArrayList<StageExecutionInfo>();
+            String error = null;
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String field = jp.getCurrentName();
+                JsonToken token = jp.nextToken();
+                if ("executionInfo".equals(field) && token == JsonToken.START_OBJECT) {
+                    hasExecutionInfo = true;
+                    while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                        String infoField = jp.getCurrentName();
+                        JsonToken infoToken = jp.nextToken();
+                        if ("status".equals(infoField) && infoToken == JsonToken.VALUE_STRING) {
+                            status = ExecutionStatus.fromValue(jp.getText());
+                        } else if ("finishedAt".equals(infoField) && infoToken != JsonToken.VALUE_NULL) {
+                            finished = true;
+                            jp.skipChildren();
+                        } else {
+                            jp.skipChildren();
+                        }
+                    }
+                } else if ("stages".equals(field) && token == JsonToken.START_ARRAY) {
+                    readStages(jp, stages);
+                } else if ("errors".equals(field) && token == JsonToken.START_ARRAY) {
+                    error = JsonSupport.readError(jp);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            if (!hasExecutionInfo) {
+                throw new IOException(error != null ? error : "Pipeline execution response has no status");
+            }
+            // A status this plugin does not know stays null; the execution counts as over once it has an end time
+            return new ExecutionSnapshot(status, firstFailedTask(stages), stages, finished);
+        } finally {
+            jp.close();
+        }
+    }
 
+    private static ExecutionStatus readStatus(JsonParser jp) throws IOException {
+        ExecutionStatus status = null;
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+            if ("status".equals(field) && token == JsonToken.VALUE_STRING) {
+                status = ExecutionStatus.fromValue(jp.getText());
+            } else {
+                jp.skipChildren();
+            }
+        }
+        return status;
+    }
+
+    private static ExecutionInfo readExecutionInfo(JsonParser jp) throws IOException {
+        ExecutionInfo info = new ExecutionInfo();
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+            if ("status".equals(field) && token == JsonToken.VALUE_STRING) {
+                info.setStatus(ExecutionStatus.fromValue(jp.getText()));
+            } else if ("runtimeInMs".equals(field) && token == JsonToken.VALUE_NUMBER_INT) {
+                info.setRuntimeInMs(jp.getLongValue());
+            } else {
+                jp.skipChildren();
+            }
+        }
+        return info;
+    }
+
+    private static void readStages(JsonParser jp, List<StageExecutionInfo> stages) throws IOException {
+        while (JsonSupport.nextArrayElement(jp)) {
+            StageExecutionInfo stage = new StageExecutionInfo();
+            List<TaskExecutionInfo> tasks = new ArrayList<TaskExecutionInfo>();
+            stage.setTasks(tasks);
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String field = jp.getCurrentName();
+                JsonToken token = jp.nextToken();
+                if ("id".equals(field) && token == JsonToken.VALUE_STRING) {
+                    stage.setId(jp.getText());
+                } else if ("name".equals(field) && token == JsonToken.VALUE_STRING) {
+                    stage.setName(jp.getText());
+                } else if ("status".equals(field) && token == JsonToken.VALUE_STRING) {
+                    stage.setStatus(ExecutionStatus.fromValue(jp.getText()));
+                } else if ("executionInfo".equals(field) && token == JsonToken.START_OBJECT) {
+                    ExecutionStatus status = readStatus(jp);
+                    if (stage.getStatus() == null) {
+                        stage.setStatus(status);
+                    }
+                } else if ("tasks".equals(field) && token == JsonToken.START_ARRAY) {
+                    while (JsonSupport.nextArrayElement(jp)) {
+                        tasks.add(readTask(jp));
+                    }
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            stages.add(stage);
+        }
+    }
+
+    private static TaskExecutionInfo firstFailedTask(List<StageExecutionInfo> stages) {
+        for (StageExecutionInfo stage : stages) {
+            for (TaskExecutionInfo task : stage.getTasks()) {
+                if (task.getExecutionInfo() != null && task.getExecutionInfo().getStatus() == ExecutionStatus.FAILED) {
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static TaskExecutionInfo readTask(JsonParser jp) throws IOException {
+        TaskExecutionInfo taskExecution = new TaskExecutionInfo();
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+            if ("id".equals(field) && token == JsonToken.VALUE_STRING) {
+                taskExecution.setId(jp.getText());
+            } else if ("executionInfo".equals(field) && token == JsonToken.START_OBJECT) {
+                taskExecution.setExecutionInfo(readExecutionInfo(jp));
+            } else if ("messages".equals(field) && token == JsonToken.VALUE_STRING) {
+                taskExecution.setMessages(jp.getText());
+            } else if ("task".equals(field) && token == JsonToken.START_OBJECT) {
+                Task task = new Task();
+                while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                    String taskField = jp.getCurrentName();
+                    JsonToken taskToken = jp.nextToken();
+                    if ("name".equals(taskField) && taskToken == JsonToken.VALUE_STRING) {
+                        task.setName(jp.getText());
+                    } else if ("id".equals(taskField) && taskToken == JsonToken.VALUE_STRING) {
+                        task.setId(jp.getText());
+                    } else {
+                        jp.skipChildren();
+                    }
+                }
+                taskExecution.setTask(task);
+            } else {
+                jp.skipChildren();
+            }
+        }
+        return taskExecution;
+    }
 }
@@ -0,0 +1,323 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shapes the requests this JVM sends to one CodeStream server.
+ * <p/>
+ * A token bucket limits the request rate to <tt>ratePerSecond</tt> with bursts of up to <tt>burst</tt>
+ * requests, and at most <tt>maxConcurrent</tt> requests are in flight at the same time. Callers that have to
+ * wait queue up by {@link Priority}, so triggering a pipeline is not stuck behind a crowd of status polls.
+ * Callers waiting longer than <tt>maxWaitMs</tt>, or finding <tt>maxQueue</tt> callers already queued, are
+ * rejected with an {@link IOException}. Callers that must not block at all, such as the status poller, use
+ * {@link #tryAcquire} and try again later when no slot is free.
+ * <p/>
+ * Governors of servers that had no request for <tt>idleMs</tt> are dropped, so looking up pipelines of
+ * servers typed into a job configuration form does not leave a governor behind for every URL tried.
+ */
+public final class RequestGovernor {
+
+    private static final String PREFIX = RequestGovernor.class.getName() + ".";
+    static final double RATE_PER_SECOND = Double.parseDouble(System.getProperty(PREFIX + "ratePerSecond", "20"));
+    static final int BURST = Integer.getInteger(PREFIX + "burst", 20);
+    static final int MAX_CONCURRENT = Integer.getInteger(PREFIX + "maxConcurrent", 8);
+    static final int MAX_QUEUE = Integer.getInteger(PREFIX + "maxQueue", 1000);
+    static final long MAX_WAIT_MS = Long.getLong(PREFIX + "maxWaitMs", 5 * 60 * 1000L);
+    static final long IDLE_MS = Long.getLong(PREFIX + "idleMs", 10 * 60 * 1000L);
+
+    private static final ConcurrentMap<String, RequestGovernor> GOVERNORS = new ConcurrentHashMap<String, RequestGovernor>();
+    private static final AtomicLong PURGED_AT = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Request classes, most urgent first.
+     */
+    public enum Priority {
+        /** Logging in; every other request of a build depends on it. */
+        TOKEN,
+        /** Triggering a pipeline execution. */
+        EXECUTE,
+        /** Pipeline lookups and listings. */
+        LOOKUP,
+        /** Execution status polls, which are the bulk of the traffic and can be late without harm. */
+        POLL
+    }
+
+    private final String serverUrl;
+    private final double ratePerMs;
+    private final double burst;
+    private final int maxConcurrent;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<Waiter>();
+    private long sequence;
+    private double tokens;
+    private long refilledAt;
+    private int inFlight;
+    private long lastUsed;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private final AtomicLong totalWaitMs = new AtomicLong();
+    private final AtomicLong maxWaitMs = new AtomicLong();
+
+    RequestGovernor(String serverUrl, double ratePerSecond, int burst, int maxConcurrent) {
+        this.serverUrl = serverUrl;
+        this.ratePerMs = ratePerSecond / 1000d;
+        this.burst = Math.max(1, burst);
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.tokens = this.burst;
+        this.refilledAt = System.currentTimeMillis();
+        this.lastUsed = refilledAt;
+    }
+
+    public static RequestGovernor forServer(String serverUrl) {
+        purgeIdle(System.currentTimeMillis());
+        RequestGovernor governor = GOVERNORS.get(serverUrl);
+        if (governor == null) {
+            RequestGovernor created = new RequestGovernor(serverUrl, RATE_PER_SECOND, BURST, MAX_CONCURRENT);
+            governor = GOVERNORS.putIfAbsent(serverUrl, created);
+            if (governor == null) {
+                governor = created;
+            }
+        }
+        return governor;
+    }
+
+    public static List<RequestGovernor> all() {
+        return new ArrayList<RequestGovernor>(GOVERNORS.values());
+    }
+
+    /**
+     * Drops the governors idle for longer than {@link #IDLE_MS}, at most once a minute.
+     */
+    static void purgeIdle(long now) {
+        long purgedAt = PURGED_AT.get();
+        if (now - purgedAt < Math.min(IDLE_MS, 60 * 1000L) || !PURGED_AT.compareAndSet(purgedAt, now)) {
+            return;
+        }
+        for (RequestGovernor governor : GOVERNORS.values()) {
+            if (governor.isIdle(now)) {
+                GOVERNORS.remove(governor.serverUrl, governor);
+            }
+        }
+    }
+
+    private boolean isIdle(long now) {
+        lock.lock();
+        try {
+            return inFlight == 0 && waiters.isEmpty() && now - lastUsed >= IDLE_MS;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the request may be sent. Every successful call must be paired with {@link #release()}.
+     */
+    public void acquire(Priority priority) throws IOException {
+        long start = System.currentTimeMillis();
+        lock.lock();
+        try {
+            lastUsed = start;
+            if (waiters.isEmpty() && tryTake(start)) {
+                acquired.incrementAndGet();
+                return;
+            }
+            if (waiters.size() >= MAX_QUEUE) {
+                rejected.incrementAndGet();
+                throw new IOException("Too many requests queued for CodeStream server " + serverUrl);
+            }
+            Waiter waiter = new Waiter(priority, sequence++);
+            waiters.add(waiter);
+            queued.incrementAndGet();
+            try {
+                long deadline = start + MAX_WAIT_MS;
+                while (true) {
+                    long now = System.currentTimeMillis();
+                    if (waiters.peek() == waiter && tryTake(now)) {
+                        break;
+                    }
+                    if (now >= deadline) {
+                        rejected.incrementAndGet();
+                        throw new IOException("Gave up waiting " + MAX_WAIT_MS + " ms for a request slot on CodeStream server " + serverUrl);
+                    }
+                    changed.await(Math.min(deadline - now, waitForToken(now)), TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a request slot on CodeStream server " + serverUrl);
+            } finally {
+                waiters.remove(waiter);
+                // The next waiter may be able to go now
+                changed.signalAll();
+            }
+            acquired.incrementAndGet();
+            long waited = System.currentTimeMillis() - start;
+            totalWaitMs.addAndGet(waited);
+            while (true) {
+                long max = maxWaitMs.get();
+                if (waited <= max || maxWaitMs.compareAndSet(max, waited)) {
+                    break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a slot only when one is free at once and nobody is queued for it. A successful call must be paired
+     * with {@link #release()}.
+     *
+     * @throws BusyException when the request has to wait; nothing is held then
+     */
+    public void tryAcquire(Priority priority) throws BusyException {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            lastUsed = now;
+            if (waiters.isEmpty() && tryTake(now)) {
+                acquired.incrementAndGet();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        deferred.incrementAndGet();
+        throw new BusyException("No free " + priority.name().toLowerCase() + " request slot on CodeStream server " + serverUrl);
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            lastUsed = System.currentTimeMillis();
+            inFlight--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean tryTake(long now) {
+        refill(now);
+        if (inFlight >= maxConcurrent || tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        inFlight++;
+        return true;
+    }
+
+    private void refill(long now) {
+        if (now > refilledAt) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerMs);
+            refilledAt = now;
+        }
+    }
+
+    /**
+     * @return how long until the bucket holds a token again; releases wake waiters earlier
+     */
+    private long waitForToken(long now) {
+        if (tokens >= 1 || ratePerMs <= 0) {
+            return 1000L;
+        }
+        return Math.max(1L, (long) Math.ceil((1 - tokens) / ratePerMs));
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public long getAcquiredCount() {
+        return acquired.get();
+    }
+
+    /**
+     * @return number of requests that could not be sent at once and had to queue
+     */
+    public long getQueuedCount() {
+        return queued.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return number of requests that did not wait for a slot and were put off by their caller
+     */
+    public long getDeferredCount() {
+        return deferred.get();
+    }
+
+    public long getAverageWaitMillis() {
+        long count = queued.get();
+        return count == 0 ? 0 : totalWaitMs.get() / count;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMs.get();
+    }
+
+    /**
+     * No request slot was free for a caller that does not wait; the request was not sent.
+     */
+    public static final class BusyException extends IOException {
+        BusyException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        private final Priority priority;
+        private final long sequence;
+
+        Waiter(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            if (priority != o.priority) {
+                return priority.compareTo(o.priority);
+            }
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+}
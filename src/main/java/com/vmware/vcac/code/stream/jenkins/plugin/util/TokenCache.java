@@ -0,0 +1,173 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * JVM wide cache of identity tokens keyed by server url, tenant and credentials id.
+ * <p/>
+ * A token is handed out until it is within {@link #REFRESH_MARGIN_MS} of its <tt>expires</tt> time.
+ * The first caller to notice that triggers the refresh while everybody else keeps using the still valid
+ * token, and concurrent callers without any usable token wait for the same in-flight request.
+ */
+public final class TokenCache {
+
+    private static final Logger LOGGER = Logger.getLogger(TokenCache.class.getName());
+
+    private static final String PREFIX = TokenCache.class.getName() + ".";
+    static final long REFRESH_MARGIN_MS = Long.getLong(PREFIX + "refreshMarginMs", TimeUnit.MINUTES.toMillis(5));
+    static final long DEFAULT_TTL_MS = Long.getLong(PREFIX + "defaultTtlMs", TimeUnit.MINUTES.toMillis(30));
+
+    private static final ConcurrentMap<String, Entry> ENTRIES = new ConcurrentHashMap<String, Entry>();
+
+    private TokenCache() {
+    }
+
+    public static String key(String serverUrl, String tenant, String credentialsId) {
+        return serverUrl + "|" + tenant + "|" + credentialsId;
+    }
+
+    /**
+     * Returns a usable token id for the key, calling the loader only when no valid token is cached
+     * and no other thread is already fetching one.
+     */
+    public static String getToken(String key, Callable<Token> loader) throws IOException {
+        Entry entry = ENTRIES.get(key);
+        if (entry == null) {
+            Entry created = new Entry();
+            entry = ENTRIES.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        Token current = entry.token;
+        if (current != null && !current.needsRefresh(now)) {
+            return current.getId();
+        }
+
+        FutureTask<Token> task;
+        boolean owner = false;
+        synchronized (entry) {
+            if (entry.pending == null) {
+                entry.pending = new FutureTask<Token>(loader);
+                owner = true;
+            }
+            task = entry.pending;
+        }
+
+        if (owner) {
+            try {
+                task.run();
+                Token fresh = await(task);
+                entry.token = fresh;
+                return fresh.getId();
+            } finally {
+                synchronized (entry) {
+                    entry.pending = null;
+                }
+            }
+        }
+
+        if (current != null && !current.isExpired(now)) {
+            // Somebody else is already refreshing, the old token is still good until then
+            return current.getId();
+        }
+        return await(task).getId();
+    }
+
+    /**
+     * Drops the cached token if it is still the one that was rejected by the server.
+     */
+    public static void invalidate(String key, String tokenId) {
+        Entry entry = ENTRIES.get(key);
+        if (entry != null) {
+            Token current = entry.token;
+            if (current != null && current.getId().equals(tokenId)) {
+                entry.token = null;
+                LOGGER.log(Level.FINE, "Invalidated token for {0}", key);
+            }
+        }
+    }
+
+    public static void clear() {
+        ENTRIES.clear();
+    }
+
+    private static Token await(FutureTask<Token> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for CodeStream token");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private static final class Entry {
+        private volatile Token token;
+        private FutureTask<Token> pending;
+    }
+
+    public static final class Token {
+        private final String id;
+        private final long expiresAt;
+
+        public Token(String id, long expiresAt) {
+            this.id = id;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Creates a token from the <tt>id</tt> and the ISO-8601 <tt>expires</tt> fields of an identity response.
+         */
+        public static Token fromResponse(String id, String expires) {
+            long expiresAt = System.currentTimeMillis() + DEFAULT_TTL_MS;
+            if (StringUtils.isNotBlank(expires)) {
+                try {
+                    expiresAt = DatatypeFactory.newInstance().newXMLGregorianCalendar(expires.trim())
+                            .toGregorianCalendar().getTimeInMillis();
+                } catch (DatatypeConfigurationException e) {
+                    LOGGER.log(Level.FINE, "Unable to parse token expiry " + expires, e);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.log(Level.FINE, "Unable to parse token expiry " + expires, e);
+                }
+            }
+            return new Token(id, expiresAt);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+
+        boolean needsRefresh(long now) {
+            return now >= expiresAt - REFRESH_MARGIN_MS;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import hudson.EnvVars;
+
+import static hudson.Util.fixEmptyAndTrim;
+
+/**
+ * A configured value split once into literal text and <tt>$VAR</tt> / <tt>${VAR}</tt> references, expanded
+ * with the same rules as {@link EnvVars#expand(String)}: <tt>$$</tt> is a literal dollar, unknown variables
+ * are left as they are and expanded values are not expanded again.
+ * <p/>
+ * Compiled templates are shared through an LRU cache of <tt>cacheSize</tt> entries keyed by the configured
+ * text, so a job compiles its values once per configuration rather than once per build.
+ */
+final class VariableTemplate {
+
+    static final int CACHE_SIZE = Integer.getInteger(VariableTemplate.class.getName() + ".cacheSize", 4096);
+
+    private static final Pattern VARIABLE = Pattern.compile("\\$([A-Za-z0-9_]+|\\{[A-Za-z0-9_.]+\\}|\\$)");
+
+    private static final Map<String, VariableTemplate> CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<String, VariableTemplate>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, VariableTemplate> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    /**
+     * Literal text, or null for a variable reference.
+     */
+    private final String[] literals;
+    /**
+     * Variable name of each reference, or null for a literal.
+     */
+    private final String[] variables;
+    /**
+     * The text of each reference as configured, kept when the variable is not set.
+     */
+    private final String[] references;
+    private final boolean literal;
+    /**
+     * The trimmed value when there is nothing to expand.
+     */
+    private final String literalValue;
+
+    private VariableTemplate(String text) {
+        List<String> literalParts = new ArrayList<String>();
+        List<String> variableParts = new ArrayList<String>();
+        List<String> referenceParts = new ArrayList<String>();
+        StringBuilder pending = new StringBuilder();
+        boolean hasReference = false;
+        Matcher m = VARIABLE.matcher(text);
+        int last = 0;
+        while (m.find()) {
+            pending.append(text, last, m.start());
+            last = m.end();
+            String key = m.group(1);
+            if (key.charAt(0) == '$') {
+                pending.append('$');
+                continue;
+            }
+            if (key.charAt(0) == '{') {
+                key = key.substring(1, key.length() - 1);
+            }
+            if (pending.length() > 0) {
+                literalParts.add(pending.toString());
+                variableParts.add(null);
+                referenceParts.add(null);
+                pending.setLength(0);
+            }
+            hasReference = true;
+            literalParts.add(null);
+            variableParts.add(key);
+            referenceParts.add(m.group());
+        }
+        pending.append(text, last, text.length());
+        if (pending.length() > 0) {
+            literalParts.add(pending.toString());
+            variableParts.add(null);
+            referenceParts.add(null);
+        }
+        literals = literalParts.toArray(new String[literalParts.size()]);
+        variables = variableParts.toArray(new String[variableParts.size()]);
+        references = referenceParts.toArray(new String[referenceParts.size()]);
+        literal = !hasReference;
+        // Without references nothing was flushed before the end, the whole value is pending
+        literalValue = literal ? fixEmptyAndTrim(pending.toString()) : null;
+    }
+
+    /**
+     * @return the template of the given text, or null for null
+     */
+    static VariableTemplate compile(String text) {
+        if (text == null) {
+            return null;
+        }
+        VariableTemplate template = CACHE.get(text);
+        if (template == null) {
+            template = new VariableTemplate(text);
+            CACHE.put(text, template);
+        }
+        return template;
+    }
+
+    /**
+     * @return whether the value is the same in every environment, so no environment is needed to expand it
+     */
+    boolean isLiteral() {
+        return literal;
+    }
+
+    /**
+     * @return the expanded value, trimmed and null when empty
+     */
+    String expand(EnvVars environment) {
+        if (literal) {
+            return literalValue;
+        }
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < literals.length; i++) {
+            if (variables[i] == null) {
+                value.append(literals[i]);
+            } else {
+                String resolved = environment.get(variables[i]);
+                value.append(resolved != null ? resolved : references[i]);
+            }
+        }
+        return fixEmptyAndTrim(value.toString());
+    }
+}
@@ -0,0 +1,403 @@
+package com.vmware.vcac.code.stream.jenkins.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Type;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelineParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PluginParam;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ReleasePipeline;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ReleasePipelineExecutionInfo;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.EnvVariableResolver;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ExecutionResponses;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.HttpClientPool;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.HttpTransport;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.JsonSupport;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.ReleasePipelineExecutionInfoParser;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.RequestGovernor;
+import com.vmware.vcac.code.stream.jenkins.plugin.util.TokenCache;
+import hudson.EnvVars;
+import hudson.Util;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Throughput and allocation rate of the hot paths of the plugin: parsing execution responses, resolving build
+ * parameters and status round trips against an embedded HTTP stub, the latter also with both HTTP transports.
+ * Where the plugin replaced an implementation, the old one is measured next to it.
+ * <p/>
+ * Skipped unless the system property <tt>enabled</tt> of this class is true:
+ * <pre>mvn test -Dtest=CodeStreamBenchmarkTest -Dcom.vmware.vcac.code.stream.jenkins.plugin.CodeStreamBenchmarkTest.enabled=true</pre>
+ * Each case is warmed up before it is measured; allocation is that of the measuring thread, so the stub's own
+ * allocations are not counted. The request rate limit is lifted, which only takes effect when no other test of the
+ * same JVM used the {@link RequestGovernor} before.
+ */
+public class CodeStreamBenchmarkTest {
+
+    private static final String PREFIX = CodeStreamBenchmarkTest.class.getName() + ".";
+    static final boolean ENABLED = Boolean.getBoolean(PREFIX + "enabled");
+    static final long WARMUP_MS = Long.getLong(PREFIX + "warmupMs", 2000L);
+    static final long MEASURE_MS = Long.getLong(PREFIX + "measureMs", 3000L);
+    static final long STUB_LATENCY_MS = Long.getLong(PREFIX + "stubLatencyMs", 20L);
+    static final int POLLS = Integer.getInteger(PREFIX + "polls", 2000);
+    static final int IN_FLIGHT = Integer.getInteger(PREFIX + "inFlight", 20);
+
+    private static final int[] STAGES = {1, 10, 100, 500};
+    private static final int[] PARAMS = {10, 100, 1000};
+
+    private static final Type PARAM_LIST = new TypeToken<List<PipelineParam>>() {
+    }.getType();
+
+    /**
+     * Keeps the results alive so the JIT cannot drop the measured work.
+     */
+    private static volatile int sink;
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue(ENABLED);
+        // Otherwise the stub's delayed ACKs and the governor's rate limit, not the client, dominate every round trip
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        System.setProperty(RequestGovernor.class.getName() + ".ratePerSecond", "1000000");
+    }
+
+    @Test
+    public void parseExecutionResponses() throws Exception {
+        for (int stages : STAGES) {
+            final String json = ExecutionResponses.execution(stages, stages - 1, "FAILED");
+            final byte[] bytes = json.getBytes("UTF-8");
+            measure("parser construction, " + stages + " stages", new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return new ReleasePipelineExecutionInfoParser(json);
+                }
+            });
+            measure("getFailedTask + isPipelineCompleted, " + stages + " stages", new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    ReleasePipelineExecutionInfoParser parser = new ReleasePipelineExecutionInfoParser(json);
+                    return parser.isPipelineCompleted() ? parser.getFailedTask() : null;
+                }
+            });
+            measure("readSnapshot, " + stages + " stages", new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return ReleasePipelineExecutionInfoParser.readSnapshot(new ByteArrayInputStream(bytes));
+                }
+            });
+        }
+    }
+
+    /**
+     * Pipeline lookups and execution responses read the way the plugin did before {@link JsonSupport}, with a new
+     * Gson and JsonParser per lookup and a new ObjectMapper per execution response, and with the shared readers.
+     */
+    @Test
+    public void jsonLayers() throws Exception {
+        for (int count : PARAMS) {
+            final String json = pipelineLookup(count);
+            measure("pipeline lookup, Gson per call, " + count + " params", new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    JsonObject root = new JsonParser().parse(json).getAsJsonObject();
+                    JsonObject pipeline = root.getAsJsonArray("content").get(0).getAsJsonObject();
+                    List<PipelineParam> params = new Gson().fromJson(
+                            pipeline.getAsJsonArray("pipelineParams").toString(), PARAM_LIST);
+                    return params;
+                }
+            });
+            measure("pipeline lookup, shared Jackson reader, " + count + " params", new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return JsonSupport.reader(ReleasePipeline.class).readValue(
+                            JsonSupport.readTree(json).get("content").get(0));
+                }
+            });
+        }
+        for (int stages : STAGES) {
+            final String json = ExecutionResponses.execution(stages, -1, "COMPLETED");
+            measure("execution response, new ObjectMapper, " + stages + " stages", new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return new ObjectMapper().readValue(json, ReleasePipelineExecutionInfo.class);
+                }
+            });
+            measure("execution response, shared Jackson reader, " + stages + " stages", new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return JsonSupport.reader(ReleasePipelineExecutionInfo.class).readValue(json);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return a pipeline lookup response with one activated pipeline of <tt>params</tt> parameters
+     */
+    private static String pipelineLookup(int params) {
+        StringBuilder json = new StringBuilder("{\"content\":[{\"id\":\"pipeline-1\",\"name\":\"benchmark\",")
+                .append("\"status\":\"ACTIVATED\",\"pipelineParams\":[");
+        for (int i = 0; i < params; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"param").append(i).append("\",\"value\":\"value-").append(i)
+                    .append("\",\"type\":\"STRING\",\"description\":\"parameter ").append(i)
+                    .append("\",\"required\":false}");
+        }
+        return json.append("]}],\"totalElements\":1}").toString();
+    }
+
+    /**
+     * Pipeline parameter values expanded the way the plugin did before {@link EnvVariableResolver} compiled them,
+     * building the environment and running {@link EnvVars#expand} on a copy of every parameter, and through the
+     * resolver with its cached templates, literal fast path and lazily built environment. Copying the variables
+     * stands in for <tt>build.getEnvironment</tt>, which costs far more in Jenkins.
+     */
+    @Test
+    public void expandParameterValues() throws Exception {
+        final EnvVars variables = new EnvVars();
+        for (int i = 0; i < 200; i++) {
+            variables.put("VAR_" + i, "value-" + i);
+        }
+        for (int count : PARAMS) {
+            for (boolean literalOnly : new boolean[]{false, true}) {
+                final List<PipelineParam> params = new ArrayList<PipelineParam>(count);
+                for (int i = 0; i < count; i++) {
+                    // A third literal, a third a single reference, a third mixed text
+                    int kind = literalOnly ? 0 : i % 3;
+                    String value = kind == 0 ? "literal " + i : kind == 1 ? "$VAR_" + (i % 200) : "v${VAR_" + (i % 200) + "}-" + i;
+                    params.add(new PipelineParam(value, "param" + i));
+                }
+                String values = count + (literalOnly ? " literal params" : " mixed params");
+                measure("EnvVars.expand, " + values, new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        EnvVars environment = new EnvVars();
+                        environment.putAll(variables);
+                        List<PipelineParam> resolved = new ArrayList<PipelineParam>();
+                        for (PipelineParam param : params) {
+                            PipelineParam cloned = param.clone();
+                            cloned.setName(Util.fixEmptyAndTrim(environment.expand(cloned.getName())));
+                            cloned.setValue(Util.fixEmptyAndTrim(environment.expand(cloned.getValue())));
+                            resolved.add(cloned);
+                        }
+                        return resolved;
+                    }
+                });
+                measure("VariableTemplate, " + values, new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        EnvVariableResolver resolver = new EnvVariableResolver(null, null) {
+                            private EnvVars environment;
+
+                            @Override
+                            public EnvVars getEnvironment() {
+                                if (environment == null) {
+                                    environment = new EnvVars();
+                                    environment.putAll(variables);
+                                }
+                                return environment;
+                            }
+                        };
+                        return resolver.replaceBuildParamWithValue(params);
+                    }
+                });
+            }
+        }
+    }
+
+    @Test
+    public void statusRoundTrips() throws Exception {
+        final byte[] body = ExecutionResponses.execution(10, -1, "IN_PROGRESS").getBytes("UTF-8");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/release-management-service/api/release-pipelines/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        try {
+            String serverUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+            // A cached token keeps the credentials lookup and the identity service out of the measurement
+            TokenCache.getToken(TokenCache.key(serverUrl, "tenant", "benchmark"), new Callable<TokenCache.Token>() {
+                @Override
+                public TokenCache.Token call() {
+                    return new TokenCache.Token("token", System.currentTimeMillis() + 60 * 60 * 1000L);
+                }
+            });
+            final CodeStreamClient client = new CodeStreamClient(
+                    new PluginParam(serverUrl, "tenant", "pipeline", "benchmark", true, new ArrayList<PipelineParam>()));
+            assertEquals(10, client.getPipelineExecutionStatus("pipeline-id", "exec-1").getStages().size());
+            measure("CodeStreamClient status round trip", new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return client.getPipelineExecutionStatus("pipeline-id", "exec-1");
+                }
+            });
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Status polls against a stub that answers after <tt>stubLatencyMs</tt>, sent the way the poller sends them:
+     * from its {@link ExecutionPoller#POOL_SIZE} threads over the blocking transport, each waiting for its
+     * response, and from a single thread over the async transport with up to <tt>inFlight</tt> polls outstanding.
+     */
+    @Test
+    public void statusPollsPerTransport() throws Exception {
+        final byte[] body = ExecutionResponses.execution(10, -1, "IN_PROGRESS").getBytes("UTF-8");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(STUB_LATENCY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/executions/exec-1";
+            measurePolls("blocking transport, " + ExecutionPoller.POOL_SIZE + " threads",
+                    HttpClientPool.getTransport(url, false), url, ExecutionPoller.POOL_SIZE);
+            measurePolls("async transport, 1 thread", HttpClientPool.getTransport(url, true), url, 1);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void measurePolls(String name, HttpTransport transport, String url, int threads) throws Exception {
+        sendPolls(transport, url, threads, POLLS / 10);
+        long start = System.nanoTime();
+        sendPolls(transport, url, threads, POLLS);
+        long elapsedNs = System.nanoTime() - start;
+        System.out.println(String.format("%-50s %12.0f polls/s %10d ms for %d polls, %d ms server latency", name,
+                POLLS * 1e9 / elapsedNs, elapsedNs / 1000000, POLLS, STUB_LATENCY_MS));
+    }
+
+    /**
+     * Sends <tt>polls</tt> GETs from <tt>threads</tt> threads, each keeping up to {@link #IN_FLIGHT} of them
+     * outstanding, as far as the transport lets it, and waits for all responses.
+     */
+    private static void sendPolls(final HttpTransport transport, final String url, int threads, int polls) throws Exception {
+        final CountDownLatch done = new CountDownLatch(polls);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> senders = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int count = polls / threads + (t < polls % threads ? 1 : 0);
+            Thread sender = new Thread("benchmark poller " + t) {
+                @Override
+                public void run() {
+                    final Semaphore inFlight = new Semaphore(IN_FLIGHT);
+                    for (int i = 0; i < count; i++) {
+                        inFlight.acquireUninterruptibly();
+                        Futures.addCallback(transport.executeAsync(new HttpGet(url)), new FutureCallback<HttpResponse>() {
+                            @Override
+                            public void onSuccess(HttpResponse response) {
+                                try {
+                                    EntityUtils.consume(response.getEntity());
+                                } catch (IOException e) {
+                                    failures.incrementAndGet();
+                                }
+                                inFlight.release();
+                                done.countDown();
+                            }
+
+                            @Override
+                            public void onFailure(Throwable t) {
+                                failures.incrementAndGet();
+                                inFlight.release();
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+            };
+            sender.start();
+            senders.add(sender);
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        done.await();
+        assertEquals(0, failures.get());
+    }
+
+    private static void measure(String name, Callable<Object> operation) throws Exception {
+        run(operation, WARMUP_MS);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threads);
+        long start = System.nanoTime();
+        long ops = run(operation, MEASURE_MS);
+        long elapsedNs = System.nanoTime() - start;
+        long allocated = allocatedBefore < 0 ? -1 : allocatedBytes(threads) - allocatedBefore;
+        System.out.println(String.format("%-50s %12.0f ops/s %12.1f us/op %12s B/op %10.1f MB/s", name,
+                ops * 1e9 / elapsedNs, elapsedNs / 1e3 / ops,
+                allocated < 0 ? "n/a" : String.valueOf(allocated / ops),
+                allocated < 0 ? 0.0 : allocated * 1e9 / elapsedNs / (1024 * 1024)));
+    }
+
+    private static long run(Callable<Object> operation, long durationMs) throws Exception {
+        long deadline = System.nanoTime() + durationMs * 1000 * 1000;
+        long ops = 0;
+        do {
+            for (int i = 0; i < 16; i++) {
+                sink ^= System.identityHashCode(operation.call());
+            }
+            ops += 16;
+        } while (System.nanoTime() < deadline);
+        return ops;
+    }
+
+    /**
+     * @return the bytes allocated so far by this thread, or -1 when the JVM does not tell
+     */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,91 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    private static final String SERVER = "https://codestream";
+
+    @Test
+    public void opensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(SERVER, 3, 60 * 1000L);
+        for (int i = 0; i < 2; i++) {
+            breaker.beforeRequest();
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.beforeRequest();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getTimesOpened());
+        assertRejected(breaker);
+    }
+
+    @Test
+    public void successResetsTheFailureCount() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(SERVER, 2, 60 * 1000L);
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void letsOneTrialThroughOnceTheOpenPeriodIsOver() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(SERVER, 1, 0);
+        breaker.onFailure();
+        breaker.beforeRequest();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertRejected(breaker);
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+        breaker.beforeRequest();
+        breaker.beforeRequest();
+    }
+
+    @Test
+    public void failedTrialOpensAgain() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(SERVER, 1, 0);
+        breaker.onFailure();
+        breaker.beforeRequest();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getTimesOpened());
+        // The open period is over at once, so the next request is the next trial
+        breaker.beforeRequest();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void abandonedTrialLetsTheNextRequestTry() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(SERVER, 1, 0);
+        breaker.onFailure();
+        breaker.beforeRequest();
+        assertRejected(breaker);
+
+        breaker.onAbandoned();
+        breaker.beforeRequest();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void forServerSharesOneBreakerPerServer() {
+        assertSame(CircuitBreaker.forServer(SERVER + "/shared"), CircuitBreaker.forServer(SERVER + "/shared"));
+    }
+
+    private static void assertRejected(CircuitBreaker breaker) {
+        try {
+            breaker.beforeRequest();
+            fail("request let through while the circuit is " + breaker.getState());
+        } catch (CircuitBreaker.OpenException expected) {
+            // fails fast
+        }
+    }
+}
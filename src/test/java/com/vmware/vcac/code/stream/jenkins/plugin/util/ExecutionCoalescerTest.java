@@ -0,0 +1,138 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.PipelineParam;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExecutionCoalescerTest {
+
+    private static final long WINDOW_MS = 60 * 1000L;
+
+    /**
+     * The registry is static, so every test works on keys of its own.
+     */
+    private static String uniqueKey() {
+        return ExecutionCoalescer.key("https://codestream", "tenant", "creds", UUID.randomUUID().toString(),
+                Collections.<PipelineParam>emptyList());
+    }
+
+    private static final class CountingTrigger implements ExecutionCoalescer.Trigger {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String trigger() throws IOException {
+            return "exec-" + calls.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void triggersWithinTheWindowShareOneExecution() throws Exception {
+        String key = uniqueKey();
+        CountingTrigger trigger = new CountingTrigger();
+        assertEquals("exec-1", ExecutionCoalescer.coalesce(key, WINDOW_MS, trigger));
+        assertEquals("exec-1", ExecutionCoalescer.coalesce(key, WINDOW_MS, trigger));
+        assertEquals(1, trigger.calls.get());
+    }
+
+    @Test
+    public void expiredWindowTriggersAgain() throws Exception {
+        String key = uniqueKey();
+        CountingTrigger trigger = new CountingTrigger();
+        assertEquals("exec-1", ExecutionCoalescer.coalesce(key, 0, trigger));
+        assertEquals("exec-2", ExecutionCoalescer.coalesce(key, 0, trigger));
+    }
+
+    @Test
+    public void finishedExecutionIsNotJoined() throws Exception {
+        String key = uniqueKey();
+        CountingTrigger trigger = new CountingTrigger();
+        String execId = ExecutionCoalescer.coalesce(key, WINDOW_MS, trigger);
+        ExecutionCoalescer.finished(execId);
+        assertEquals("exec-2", ExecutionCoalescer.coalesce(key, WINDOW_MS, trigger));
+        ExecutionCoalescer.finished(null);
+    }
+
+    @Test
+    public void failedTriggerLetsTheNextBuildTrigger() throws Exception {
+        String key = uniqueKey();
+        try {
+            ExecutionCoalescer.coalesce(key, WINDOW_MS, new ExecutionCoalescer.Trigger() {
+                @Override
+                public String trigger() throws IOException {
+                    throw new IOException("server down");
+                }
+            });
+            fail("trigger failure swallowed");
+        } catch (IOException expected) {
+            assertEquals("server down", expected.getMessage());
+        }
+        CountingTrigger trigger = new CountingTrigger();
+        assertEquals("exec-1", ExecutionCoalescer.coalesce(key, WINDOW_MS, trigger));
+    }
+
+    @Test
+    public void buildsArrivingDuringTheTriggerWaitForIt() throws Exception {
+        final String key = uniqueKey();
+        final CountDownLatch triggering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final ExecutionCoalescer.Trigger trigger = new ExecutionCoalescer.Trigger() {
+            @Override
+            public String trigger() throws IOException {
+                calls.incrementAndGet();
+                triggering.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return "exec-slow";
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Callable<String> build = new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return ExecutionCoalescer.coalesce(key, WINDOW_MS, trigger);
+                }
+            };
+            Future<String> first = executor.submit(build);
+            assertTrue(triggering.await(10, TimeUnit.SECONDS));
+            Future<String> second = executor.submit(build);
+            release.countDown();
+            assertEquals("exec-slow", first.get(10, TimeUnit.SECONDS));
+            assertEquals("exec-slow", second.get(10, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void keyIgnoresParameterOrderButNotValuesOrCredentials() {
+        PipelineParam a = new PipelineParam("1", "A");
+        PipelineParam b = new PipelineParam("2", "B");
+        String key = ExecutionCoalescer.key("url", "tenant", "creds", "p", Arrays.asList(a, b));
+        assertEquals(key, ExecutionCoalescer.key("url", "tenant", "creds", "p", Arrays.asList(b, a)));
+        assertFalse(key.equals(ExecutionCoalescer.key("url", "tenant", "other", "p", Arrays.asList(a, b))));
+        assertFalse(key.equals(ExecutionCoalescer.key("url", "tenant", "creds", "p",
+                Arrays.asList(a, new PipelineParam("3", "B")))));
+    }
+}
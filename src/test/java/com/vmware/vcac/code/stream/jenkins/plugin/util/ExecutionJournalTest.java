@@ -0,0 +1,192 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExecutionJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final List<ExecutionJournal> opened = new ArrayList<ExecutionJournal>();
+    private File file;
+
+    private ExecutionJournal open() throws IOException {
+        if (file == null) {
+            file = new File(tmp.getRoot(), ExecutionJournal.FILE_NAME);
+        }
+        ExecutionJournal journal = ExecutionJournal.open(file);
+        opened.add(journal);
+        return journal;
+    }
+
+    @After
+    public void closeJournals() {
+        for (ExecutionJournal journal : opened) {
+            journal.close();
+        }
+    }
+
+    private static ExecutionJournal.Record record(String execId, String owner, String pipelineName) {
+        return new ExecutionJournal.Record(owner, "https://codestream", "tenant", "creds", pipelineName,
+                "pipeline-" + pipelineName, execId, "FIXED", null);
+    }
+
+    @Test
+    public void pendingExecutionsSurviveReopen() throws Exception {
+        ExecutionJournal journal = open();
+        journal.started(record("e1", "job#1", "p1"));
+        journal.started(record("e2", "job#2", "p2"));
+        journal.status("e1", "IN_PROGRESS");
+        journal.finished("e2", "COMPLETED");
+        journal.flush();
+
+        List<ExecutionJournal.Record> pending = open().getPending();
+        assertEquals(1, pending.size());
+        ExecutionJournal.Record record = pending.get(0);
+        assertEquals("e1", record.getExecId());
+        assertEquals("IN_PROGRESS", record.getStatus());
+        assertEquals("creds", record.getCredentialsId());
+        assertEquals("pipeline-p1", record.getPipelineId());
+        assertEquals("FIXED", record.getPollStrategy());
+    }
+
+    @Test
+    public void tornRecordsAreSkipped() throws Exception {
+        ExecutionJournal journal = open();
+        journal.started(record("e1", "job#1", "p1"));
+        journal.flush();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        try {
+            out.write("{\"op\":\"start\",\"execId\":\"e2\",\"pipel\n");
+            out.write("{\"op\":\"status\",\"execId\":\"e1\",\"status\":\"PAUSED\"}\n");
+        } finally {
+            out.close();
+        }
+
+        List<ExecutionJournal.Record> pending = open().getPending();
+        assertEquals(1, pending.size());
+        assertEquals("e1", pending.get(0).getExecId());
+        assertEquals("PAUSED", pending.get(0).getStatus());
+    }
+
+    @Test
+    public void openCompactsToPendingRecords() throws Exception {
+        ExecutionJournal journal = open();
+        for (int i = 0; i < 10; i++) {
+            journal.started(record("e" + i, "job#" + i, "p"));
+            journal.status("e" + i, "IN_PROGRESS");
+            if (i > 0) {
+                journal.finished("e" + i, "COMPLETED");
+            }
+        }
+        journal.flush();
+
+        open();
+        List<String> lines = Files.readLines(file, Charsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("\"execId\":\"e0\""));
+        assertTrue(lines.get(0).contains("\"status\":\"IN_PROGRESS\""));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void unreadableJournalIsKeptAndAppendedTo() throws Exception {
+        ExecutionJournal journal = open();
+        journal.started(record("e1", "job#1", "p1"));
+        journal.status("e1", "IN_PROGRESS");
+        journal.flush();
+        assertTrue(file.setReadable(false, false));
+        try {
+            Assume.assumeFalse("file permissions are not enforced for this user", file.canRead());
+            ExecutionJournal unreadable = open();
+            assertTrue(unreadable.getPending().isEmpty());
+            unreadable.started(record("e2", "job#2", "p2"));
+            unreadable.finished("e2", "COMPLETED");
+            unreadable.started(record("e3", "job#3", "p3"));
+        } finally {
+            assertTrue(file.setReadable(true, false));
+        }
+
+        List<ExecutionJournal.Record> pending = open().getPending();
+        assertEquals(2, pending.size());
+        assertEquals("e1", pending.get(0).getExecId());
+        assertEquals("IN_PROGRESS", pending.get(0).getStatus());
+        assertEquals("e3", pending.get(1).getExecId());
+    }
+
+    @Test
+    public void sharedExecutionStaysWithTheBuildThatTriggeredIt() throws Exception {
+        ExecutionJournal journal = open();
+        journal.started(record("e1", "job#1", "p1"));
+        journal.started(record("e1", "job#2", "p1"));
+
+        List<ExecutionJournal.Record> pending = journal.getPending();
+        assertEquals(1, pending.size());
+        assertEquals("job#1", pending.get(0).getOwner());
+    }
+
+    @Test
+    public void findPendingMatchesTheStepKey() throws Exception {
+        ExecutionJournal journal = open();
+        // Two parallel steps of one build running the same pipeline
+        journal.started(record("e1", "job#1/a", "p1"));
+        journal.started(record("e2", "job#1/b", "p1"));
+
+        assertEquals("e1", journal.findPending("job#1/a").getExecId());
+        assertEquals("e2", journal.findPending("job#1/b").getExecId());
+        assertNull(journal.findPending("job#1"));
+        assertNull(journal.findPending(null));
+        journal.finished("e2", "FAILED");
+        assertNull(journal.findPending("job#1/b"));
+    }
+
+    @Test
+    public void statusOfUnknownExecutionIsIgnored() throws Exception {
+        ExecutionJournal journal = open();
+        journal.status("missing", "COMPLETED");
+        journal.finished("missing", "COMPLETED");
+        assertTrue(journal.getPending().isEmpty());
+        assertTrue(open().getPending().isEmpty());
+    }
+
+    @Test
+    public void closedJournalIsFlushedAndStopsAppending() throws Exception {
+        ExecutionJournal journal = open();
+        journal.started(record("e1", "job#1", "p1"));
+        journal.status("e1", "PAUSED");
+        journal.close();
+        journal.status("e1", "IN_PROGRESS");
+        journal.finished("e1", "COMPLETED");
+
+        List<ExecutionJournal.Record> pending = open().getPending();
+        assertEquals(1, pending.size());
+        assertEquals("PAUSED", pending.get(0).getStatus());
+    }
+
+    @Test
+    public void disabledJournalKeepsNothing() {
+        ExecutionJournal journal = ExecutionJournal.open(null);
+        journal.started(record("e1", "job#1", "p1"));
+        assertFalse(journal.isEnabled());
+        assertTrue(journal.getPending().isEmpty());
+    }
+}
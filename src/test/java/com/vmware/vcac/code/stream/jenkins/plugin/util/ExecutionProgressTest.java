@@ -0,0 +1,45 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSnapshot;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExecutionProgressTest {
+
+    private static ExecutionSnapshot snapshot(int failedStage, String status) throws Exception {
+        return ReleasePipelineExecutionInfoParser.readSnapshot(new ByteArrayInputStream(
+                ExecutionResponses.execution(2, failedStage, status).getBytes("UTF-8")));
+    }
+
+    @Test
+    public void everyLineNamesPipelineAndExecution() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream logger = new PrintStream(out, true, "UTF-8");
+        new ExecutionProgress("deploy", "exec-1").report(snapshot(1, "FAILED"), logger);
+
+        String[] lines = out.toString("UTF-8").split("\\r?\\n");
+        assertEquals(6, lines.length);
+        for (String line : lines) {
+            assertTrue(line, line.startsWith("[deploy exec-1] "));
+        }
+        assertEquals("[deploy exec-1] Stage Stage 1 failed after 1 s of task run time", lines[3]);
+        assertEquals("[deploy exec-1]   Task Task 1-1 of stage Stage 1 failed after 0 s: failed", lines[5]);
+    }
+
+    @Test
+    public void unchangedPollPrintsNothing() throws Exception {
+        ExecutionProgress progress = new ExecutionProgress("deploy", "exec-1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream logger = new PrintStream(out, true, "UTF-8");
+        progress.report(snapshot(-1, "COMPLETED"), logger);
+        out.reset();
+        progress.report(snapshot(-1, "COMPLETED"), logger);
+        assertEquals(0, out.size());
+    }
+}
@@ -0,0 +1,58 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+/**
+ * Execution responses shaped like those of the release management service, for tests and benchmarks.
+ */
+public final class ExecutionResponses {
+
+    private ExecutionResponses() {
+    }
+
+    /**
+     * @param stages      number of stages, each with two tasks
+     * @param failedStage stage whose second task failed, or -1 for none
+     * @param status      status of the execution
+     * @return the execution response; every task carries bulky input and output parameters
+     */
+    public static String execution(int stages, int failedStage, String status) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"id\":\"exec-1\",\"description\":\"benchmark\",\"createdBy\":\"jenkins\",")
+                .append("\"executionInfo\":{\"id\":\"info\",\"status\":\"").append(status)
+                .append("\",\"runtimeInMs\":").append(stages * 1000).append("},\"stages\":[");
+        for (int s = 0; s < stages; s++) {
+            if (s > 0) {
+                json.append(',');
+            }
+            String stageStatus = s == failedStage ? "FAILED" : "COMPLETED";
+            json.append("{\"id\":\"stage-").append(s).append("\",\"name\":\"Stage ").append(s)
+                    .append("\",\"executionInfo\":{\"status\":\"").append(stageStatus).append("\"},\"tasks\":[");
+            for (int t = 0; t < 2; t++) {
+                if (t > 0) {
+                    json.append(',');
+                }
+                String taskStatus = s == failedStage && t == 1 ? "FAILED" : "COMPLETED";
+                json.append("{\"id\":\"task-").append(s).append('-').append(t)
+                        .append("\",\"executionInfo\":{\"status\":\"").append(taskStatus)
+                        .append("\",\"runtimeInMs\":500},\"messages\":\"").append(taskStatus.toLowerCase())
+                        .append("\",\"inputParams\":\"").append(bulk(s, t))
+                        .append("\",\"outputParams\":\"").append(bulk(s, t))
+                        .append("\",\"task\":{\"id\":\"t").append(t).append("\",\"name\":\"Task ").append(s)
+                        .append('-').append(t).append("\",\"configuration\":{\"script\":\"echo hello\"}}}");
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String bulk(int s, int t) {
+        StringBuilder value = new StringBuilder("[");
+        for (int i = 0; i < 20; i++) {
+            if (i > 0) {
+                value.append(',');
+            }
+            value.append("{\\\"name\\\":\\\"p").append(i).append("\\\",\\\"value\\\":\\\"")
+                    .append(s).append('-').append(t).append('-').append(i).append("\\\"}");
+        }
+        return value.append(']').toString();
+    }
+}
@@ -0,0 +1,61 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ExecutionResultStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static String response(String execId, String status) {
+        return ExecutionResponses.execution(2, -1, status).replace("\"id\":\"exec-1\"", "\"id\":\"" + execId + "\"");
+    }
+
+    private static Map<String, String> store(File buildDir, String json) throws Exception {
+        Map<String, String> data = new HashMap<String, String>();
+        data.put(ExecutionResultStore.RAW_PREFIX, json);
+        ExecutionResultStore.store(buildDir, data, Collections.<String, JsonPath>emptyMap());
+        return data;
+    }
+
+    @Test
+    public void stepsOfOneBuildKeepTheirOwnResponse() throws Exception {
+        File buildDir = tmp.getRoot();
+        String first = response("exec/1", "COMPLETED");
+        String second = response("exec-2", "FAILED");
+        Map<String, String> firstData = store(buildDir, first);
+        Map<String, String> secondData = store(buildDir, second);
+
+        String firstFile = firstData.get(ExecutionResultStore.FILE_PREFIX);
+        String secondFile = secondData.get(ExecutionResultStore.FILE_PREFIX);
+        assertFalse(firstFile.equals(secondFile));
+        assertEquals("execution-exec%2F1.json.gz", new File(firstFile).getName());
+        assertEquals(first, ExecutionResultStore.load(new File(firstFile)));
+        assertEquals(second, ExecutionResultStore.load(new File(secondFile)));
+        assertNull(firstData.get(ExecutionResultStore.RAW_PREFIX));
+    }
+
+    @Test
+    public void outputVariablesOfParallelPipelinesKeepTheirSuffix() throws Exception {
+        Map<String, String> data = new HashMap<String, String>();
+        data.put(ExecutionResultStore.RAW_PREFIX + "_BUILD", response("exec-1", "COMPLETED"));
+        data.put(ExecutionResultStore.RAW_PREFIX + "_DEPLOY", response("exec-2", "COMPLETED"));
+        ExecutionResultStore.store(tmp.getRoot(), data, ExecutionResultStore.parseExports("FIRST_STAGE=$.stages[0].name"));
+
+        assertEquals("Stage 0", data.get("FIRST_STAGE_BUILD"));
+        assertEquals("Stage 0", data.get("FIRST_STAGE_DEPLOY"));
+        assertEquals("execution-exec-2.json.gz",
+                new File(data.get(ExecutionResultStore.FILE_PREFIX + "_DEPLOY")).getName());
+    }
+}
@@ -0,0 +1,124 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpTransportTest {
+
+    private final CountDownLatch respond = new CountDownLatch(1);
+    private HttpServer server;
+    private String serverUrl;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = "{\"status\":\"COMPLETED\"}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        serverUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        respond.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void asyncTransportCompletesFromItsOwnThread() throws Exception {
+        HttpTransport transport = HttpClientPool.getTransport(serverUrl, true);
+        ListenableFuture<HttpResponse> future = transport.executeAsync(new HttpGet(serverUrl + "/status"));
+        final AtomicReference<Thread> completedBy = new AtomicReference<Thread>();
+        final CountDownLatch listened = new CountDownLatch(1);
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                completedBy.set(Thread.currentThread());
+                listened.countDown();
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        // Nobody waits for the slow server meanwhile
+        assertFalse(future.isDone());
+
+        respond.countDown();
+        HttpResponse response = future.get(10, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertEquals("{\"status\":\"COMPLETED\"}", EntityUtils.toString(response.getEntity()));
+        // Listeners run after get() may already have returned
+        assertTrue(listened.await(10, TimeUnit.SECONDS));
+        assertNotNull(completedBy.get());
+        assertTrue(completedBy.get() != Thread.currentThread());
+    }
+
+    @Test
+    public void blockingTransportCompletesBeforeReturning() throws Exception {
+        respond.countDown();
+        ListenableFuture<HttpResponse> future = HttpClientPool.getTransport(serverUrl, false)
+                .executeAsync(new HttpGet(serverUrl + "/status"));
+        assertTrue(future.isDone());
+        EntityUtils.consume(future.get().getEntity());
+    }
+
+    @Test
+    public void synchronousRequestsOfTheAsyncTransportDoNotNeedTheReactor() throws Exception {
+        respond.countDown();
+        HttpResponse response = HttpClientPool.getTransport(serverUrl, true).execute(new HttpGet(serverUrl + "/status"));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+    }
+
+    @Test
+    public void connectionFailureFailsTheFuture() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        String closedUrl = "http://127.0.0.1:" + socket.getLocalPort();
+        socket.close();
+        for (boolean async : new boolean[]{false, true}) {
+            try {
+                HttpClientPool.getTransport(closedUrl, async).executeAsync(new HttpGet(closedUrl + "/status"))
+                        .get(10, TimeUnit.SECONDS);
+                fail("request to a closed port succeeded");
+            } catch (ExecutionException expected) {
+                assertTrue(String.valueOf(expected.getCause()), expected.getCause() instanceof IOException);
+            }
+        }
+    }
+}
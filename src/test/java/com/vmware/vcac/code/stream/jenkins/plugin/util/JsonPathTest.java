@@ -0,0 +1,92 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import org.codehaus.jackson.JsonNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class JsonPathTest {
+
+    private static final String EXECUTION = "{"
+            + "\"id\":\"exec-1\","
+            + "\"executionInfo\":{\"status\":\"COMPLETED\",\"runtimeInMs\":1200},"
+            + "\"stages\":[{\"name\":\"Dev\",\"tasks\":["
+            + "{\"task\":{\"name\":\"build\"},\"outputParams\":\"[{\\\"name\\\":\\\"version\\\",\\\"value\\\":\\\"1.2\\\"}]\"},"
+            + "{\"task\":{\"name\":\"deploy\"},\"outputParams\":\"[{\\\"name\\\":\\\"host\\\",\\\"value\\\":\\\"vm-7\\\"}]\"}"
+            + "]}]}";
+
+    private static String eval(String path) throws Exception {
+        JsonNode root = JsonSupport.readTree(EXECUTION);
+        return JsonPath.compile(path).evaluate(root);
+    }
+
+    @Test
+    public void fieldsAndIndices() throws Exception {
+        assertEquals("COMPLETED", eval("$.executionInfo.status"));
+        assertEquals("1200", eval("$['executionInfo']['runtimeInMs']"));
+        assertEquals("Dev", eval("$.stages[0].name"));
+        assertEquals("deploy", eval("$.stages[0].tasks[1].task.name"));
+    }
+
+    @Test
+    public void objectsAndArraysAreReturnedAsJson() throws Exception {
+        assertEquals("{\"status\":\"COMPLETED\",\"runtimeInMs\":1200}", eval("$.executionInfo"));
+    }
+
+    @Test
+    public void missingValuesAreNull() throws Exception {
+        assertNull(eval("$.nothing"));
+        assertNull(eval("$.stages[5].name"));
+        assertNull(eval("$.stages[99999999999].name"));
+    }
+
+    @Test
+    public void wildcardAndFilterTakeTheFirstMatch() throws Exception {
+        assertEquals("build", eval("$.stages[*].tasks[*].task.name"));
+        assertEquals("deploy", eval("$.stages[?(@.name=='Dev')].tasks[1].task.name"));
+    }
+
+    @Test
+    public void filterComparesDirectChildren() throws Exception {
+        JsonNode root = JsonSupport.readTree("[{\"k\":\"a\",\"v\":1},{\"k\":\"b\",\"v\":2}]");
+        assertEquals("2", JsonPath.compile("$[?(@.k=='b')].v").evaluate(root));
+        assertEquals("2", JsonPath.compile("$[?(@.k==\"b\")].v").evaluate(root));
+        assertNull(JsonPath.compile("$[?(@.k=='c')].v").evaluate(root));
+    }
+
+    @Test
+    public void pathGoesIntoJsonHeldInStrings() throws Exception {
+        assertEquals("1.2", eval("$.stages[0].tasks[0].outputParams[0].value"));
+        assertEquals("vm-7", eval("$.stages[0].tasks[*].outputParams[?(@.name=='host')].value"));
+    }
+
+    @Test
+    public void malformedExpressionsAreRejected() {
+        String[] malformed = {
+                null,
+                "",
+                "executionInfo.status",
+                "$.",
+                "$..status",
+                "$.stages[",
+                "$.stages[a]",
+                "$.stages[-1]",
+                "$['status]",
+                "$[?(@.status)]",
+                "$[?(status=='X')]",
+                "$[?(@.=='X')]",
+                "$[?(@.status=='X)]",
+                "$status"
+        };
+        for (String expression : malformed) {
+            try {
+                JsonPath.compile(expression);
+                fail("accepted " + expression);
+            } catch (IllegalArgumentException expected) {
+                // rejected at configuration time
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JsonSupportTest {
+
+    private static JsonParser array(String json) throws Exception {
+        JsonParser jp = JsonSupport.factory().createJsonParser(json);
+        assertEquals(JsonToken.START_ARRAY, jp.nextToken());
+        return jp;
+    }
+
+    @Test
+    public void nextArrayElementSkipsAnythingButObjects() throws Exception {
+        JsonParser jp = array("[1, \"two\", [3, {\"x\": 4}], {\"id\": \"a\"}, null]");
+        assertTrue(JsonSupport.nextArrayElement(jp));
+        assertEquals(JsonToken.FIELD_NAME, jp.nextToken());
+        assertEquals("id", jp.getCurrentName());
+        jp.nextToken();
+        assertEquals(JsonToken.END_OBJECT, jp.nextToken());
+        assertFalse(JsonSupport.nextArrayElement(jp));
+        assertNull(jp.nextToken());
+    }
+
+    @Test
+    public void readErrorTakesTheFirstMessage() throws Exception {
+        JsonParser jp = array("[{\"code\": 1, \"details\": {\"message\": \"nested\"}, \"systemMessage\": \"Not found\"},"
+                + " {\"message\": \"second\"}]");
+        assertEquals("Not found", JsonSupport.readError(jp));
+        assertNull(jp.nextToken());
+        assertNull(JsonSupport.readError(array("[{\"code\": 1}, 2]")));
+    }
+}
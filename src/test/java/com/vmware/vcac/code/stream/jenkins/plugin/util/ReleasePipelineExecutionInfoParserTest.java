@@ -0,0 +1,131 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionSnapshot;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.ExecutionStatus;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.StageExecutionInfo;
+import com.vmware.vcac.code.stream.jenkins.plugin.model.TaskExecutionInfo;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReleasePipelineExecutionInfoParserTest {
+
+    private static InputStream stream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void snapshotReadsStatusStagesAndFirstFailedTask() throws Exception {
+        ExecutionSnapshot snapshot = ReleasePipelineExecutionInfoParser.readSnapshot(
+                stream(ExecutionResponses.execution(3, 1, "FAILED")));
+        assertEquals(ExecutionStatus.FAILED, snapshot.getStatus());
+        assertTrue(snapshot.isCompleted());
+        assertEquals(3, snapshot.getStages().size());
+        StageExecutionInfo stage = snapshot.getStages().get(1);
+        assertEquals("stage-1", stage.getId());
+        assertEquals("Stage 1", stage.getName());
+        assertEquals(ExecutionStatus.FAILED, stage.getStatus());
+        assertEquals(2, stage.getTasks().size());
+
+        TaskExecutionInfo failed = snapshot.getFailedTask();
+        assertEquals("task-1-1", failed.getId());
+        assertEquals("Task 1-1", failed.getTask().getName());
+        assertEquals("t1", failed.getTask().getId());
+        assertEquals("failed", failed.getMessages());
+        assertEquals(500, failed.getExecutionInfo().getRuntimeInMs());
+        // Task parameters are skipped, not materialized
+        assertNull(failed.getOutputParams());
+        assertNull(failed.getInputParams());
+    }
+
+    @Test
+    public void snapshotOfRunningExecution() throws Exception {
+        ExecutionSnapshot snapshot = ReleasePipelineExecutionInfoParser.readSnapshot(
+                stream(ExecutionResponses.execution(2, -1, "IN_PROGRESS")));
+        assertEquals(ExecutionStatus.IN_PROGRESS, snapshot.getStatus());
+        assertFalse(snapshot.isCompleted());
+        assertNull(snapshot.getFailedTask());
+    }
+
+    @Test
+    public void snapshotMatchesTheFullParser() throws Exception {
+        String json = ExecutionResponses.execution(5, 3, "FAILED");
+        ReleasePipelineExecutionInfoParser parser = new ReleasePipelineExecutionInfoParser(json);
+        ExecutionSnapshot snapshot = ReleasePipelineExecutionInfoParser.readSnapshot(stream(json));
+        assertEquals(parser.getPipelineExecStatus(), snapshot.getStatus());
+        assertEquals(parser.isPipelineCompleted(), snapshot.isCompleted());
+        assertEquals(parser.getFailedTask().getId(), snapshot.getFailedTask().getId());
+    }
+
+    @Test
+    public void unknownStatusIsNullAndNotCompleted() throws Exception {
+        String json = "{\"executionInfo\":{\"status\":\"WAITING_FOR_APPROVAL\"},\"stages\":[]}";
+        ExecutionSnapshot snapshot = ReleasePipelineExecutionInfoParser.readSnapshot(stream(json));
+        assertNull(snapshot.getStatus());
+        assertFalse(snapshot.isCompleted());
+
+        ReleasePipelineExecutionInfoParser parser = new ReleasePipelineExecutionInfoParser(json);
+        assertNull(parser.getPipelineExecStatus());
+        assertFalse(parser.isPipelineCompleted());
+    }
+
+    @Test
+    public void unknownStatusWithEndTimeIsCompleted() throws Exception {
+        String json = "{\"executionInfo\":{\"status\":\"ROLLED_BACK\",\"finishedAt\":\"2015-06-18T10:15:30Z\"},"
+                + "\"stages\":[]}";
+        ExecutionSnapshot snapshot = ReleasePipelineExecutionInfoParser.readSnapshot(stream(json));
+        assertNull(snapshot.getStatus());
+        assertTrue(snapshot.isFinished());
+        assertTrue(snapshot.isCompleted());
+
+        ReleasePipelineExecutionInfoParser parser = new ReleasePipelineExecutionInfoParser(json);
+        assertNull(parser.getPipelineExecStatus());
+        assertTrue(parser.isPipelineCompleted());
+
+        String running = "{\"executionInfo\":{\"status\":\"ROLLED_BACK\",\"finishedAt\":null},\"stages\":[]}";
+        assertFalse(ReleasePipelineExecutionInfoParser.readSnapshot(stream(running)).isCompleted());
+    }
+
+    @Test
+    public void unexpectedFieldsAndElementsAreSkipped() throws Exception {
+        String json = "{\"links\":[{\"rel\":\"self\"}],\"stages\":[42,{\"name\":\"Dev\",\"status\":\"COMPLETED\","
+                + "\"tasks\":[null,{\"id\":\"a\",\"executionInfo\":{\"status\":\"FAILED\",\"extra\":{\"x\":[1]}}}]}],"
+                + "\"executionInfo\":{\"startedAt\":null,\"status\":\"FAILED\"}}";
+        ExecutionSnapshot snapshot = ReleasePipelineExecutionInfoParser.readSnapshot(stream(json));
+        assertEquals(ExecutionStatus.FAILED, snapshot.getStatus());
+        assertEquals(1, snapshot.getStages().size());
+        assertEquals(ExecutionStatus.COMPLETED, snapshot.getStages().get(0).getStatus());
+        assertEquals("a", snapshot.getFailedTask().getId());
+    }
+
+    @Test
+    public void errorResponseFailsWithItsMessage() throws Exception {
+        String json = "{\"errors\":[{\"code\":404,\"systemMessage\":\"Execution not found\"}]}";
+        try {
+            ReleasePipelineExecutionInfoParser.readSnapshot(stream(json));
+            fail("error response read as a snapshot");
+        } catch (IOException expected) {
+            assertEquals("Execution not found", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void responseWithoutStatusFails() throws Exception {
+        for (String json : new String[]{"{}", "[]", "{\"stages\":[]}"}) {
+            try {
+                ReleasePipelineExecutionInfoParser.readSnapshot(stream(json));
+                fail("accepted " + json);
+            } catch (IOException expected) {
+                // not an execution
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestGovernorTest {
+
+    private static final String SERVER = "https://codestream";
+
+    @Test
+    public void tryAcquireTakesAFreeSlot() throws Exception {
+        RequestGovernor governor = new RequestGovernor(SERVER, 1000, 10, 2);
+        governor.tryAcquire(RequestGovernor.Priority.POLL);
+        governor.tryAcquire(RequestGovernor.Priority.POLL);
+        assertEquals(2, governor.getInFlight());
+        assertBusy(governor);
+
+        governor.release();
+        governor.tryAcquire(RequestGovernor.Priority.POLL);
+        assertEquals(3, governor.getAcquiredCount());
+        assertEquals(1, governor.getDeferredCount());
+        assertEquals(0, governor.getQueuedCount());
+    }
+
+    @Test
+    public void tryAcquireDoesNotOvertakeTheRateLimit() throws Exception {
+        RequestGovernor governor = new RequestGovernor(SERVER, 0, 1, 10);
+        governor.tryAcquire(RequestGovernor.Priority.POLL);
+        governor.release();
+        assertBusy(governor);
+        assertEquals(0, governor.getInFlight());
+    }
+
+    @Test
+    public void tryAcquireLeavesTheSlotToQueuedCallers() throws Exception {
+        final RequestGovernor governor = new RequestGovernor(SERVER, 1000, 10, 1);
+        governor.acquire(RequestGovernor.Priority.EXECUTE);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    governor.acquire(RequestGovernor.Priority.EXECUTE);
+                    acquired.countDown();
+                } catch (Exception e) {
+                    // the latch stays closed
+                }
+            }
+        };
+        waiter.start();
+        while (governor.getQueueDepth() == 0) {
+            Thread.sleep(1);
+        }
+        // Whether or not the waiter woke up yet, the slot is the queued trigger's
+        governor.release();
+        assertBusy(governor);
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        waiter.join();
+    }
+
+    private static void assertBusy(RequestGovernor governor) {
+        try {
+            governor.tryAcquire(RequestGovernor.Priority.POLL);
+            fail("slot taken with " + governor.getInFlight() + " requests in flight");
+        } catch (RequestGovernor.BusyException expected) {
+            // put off, nothing held
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.vmware.vcac.code.stream.jenkins.plugin.util;
+
+import hudson.EnvVars;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VariableTemplateTest {
+
+    private static final EnvVars ENV = new EnvVars("BUILD_NUMBER", "42", "JOB_NAME", "app", "SELF", "$BUILD_NUMBER");
+
+    private static String expand(String text) {
+        return VariableTemplate.compile(text).expand(ENV);
+    }
+
+    @Test
+    public void expandsBothReferenceForms() {
+        assertEquals("app-42", expand("$JOB_NAME-$BUILD_NUMBER"));
+        assertEquals("app_42", expand("${JOB_NAME}_${BUILD_NUMBER}"));
+        assertEquals("42", expand("$BUILD_NUMBER"));
+    }
+
+    @Test
+    public void unknownVariablesAreKept() {
+        assertEquals("$UNSET and ${UNSET} for app", expand("$UNSET and ${UNSET} for $JOB_NAME"));
+    }
+
+    @Test
+    public void doubleDollarIsALiteralDollar() {
+        assertEquals("$BUILD_NUMBER costs $5", expand("$$BUILD_NUMBER costs $$5"));
+        assertTrue(VariableTemplate.compile("$$BUILD_NUMBER").isLiteral());
+    }
+
+    @Test
+    public void expandedValuesAreNotExpandedAgain() {
+        assertEquals("$BUILD_NUMBER", expand("$SELF"));
+    }
+
+    @Test
+    public void resultIsTrimmedAndNullWhenEmpty() {
+        assertEquals("app", expand("  $JOB_NAME  "));
+        assertEquals("plain", expand("  plain "));
+        assertNull(expand("   "));
+        assertNull(VariableTemplate.compile("${EMPTY}").expand(new EnvVars("EMPTY", " ")));
+    }
+
+    @Test
+    public void literalsNeedNoEnvironment() {
+        VariableTemplate template = VariableTemplate.compile("release 1.0");
+        assertTrue(template.isLiteral());
+        assertEquals("release 1.0", template.expand(null));
+        assertFalse(VariableTemplate.compile("release $BUILD_NUMBER").isLiteral());
+    }
+
+    @Test
+    public void compiledTemplatesAreShared() {
+        assertNull(VariableTemplate.compile(null));
+        assertSame(VariableTemplate.compile("shared $JOB_NAME"), VariableTemplate.compile("shared $JOB_NAME"));
+    }
+}